@@ -0,0 +1,71 @@
+package com.sample;
+
+import com.amazonaws.auth.AWSStaticCredentialsProvider;
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.client.builder.AwsClientBuilder;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDBClientBuilder;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapperConfig;
+import com.sample.config.DynamoDBConfig;
+import com.sample.model.Address;
+import com.sample.model.AddressConverter;
+import com.sample.model.User;
+import com.sample.util.SearchTokenizer;
+import com.sample.util.UserStatus;
+
+import java.util.Date;
+
+/**
+ * Same user and offline mapper for every benchmark, so results compare across commits
+ */
+public final class Fixtures {
+
+	private Fixtures() {
+	}
+
+	/**
+	 * Mapper of a client which is never called, marshalling does not reach DynamoDB
+	 *
+	 * @return mapper
+	 */
+	public static DynamoDBMapper mapper() {
+		return new DynamoDBMapper(AmazonDynamoDBClientBuilder.standard()
+				.withEndpointConfiguration(new AwsClientBuilder.EndpointConfiguration("http://localhost:8000", "us-east-1"))
+				.withCredentials(new AWSStaticCredentialsProvider(new BasicAWSCredentials("key", "secret")))
+				.build(), new DynamoDBMapperConfig.Builder()
+				.withConversionSchema(DynamoDBConfig.conversionSchema(new AddressConverter(AddressConverter.Encoding.MAP)))
+				.build());
+	}
+
+	public static User user() {
+		Address address = new Address();
+		address.setStreet("123 Nguyen Van Linh");
+		address.setDistrict("District 7");
+		address.setCity("Ho Chi Minh");
+		address.setCountry("Vietnam");
+		address.setPostalCode("700000");
+		address.setText("123 Nguyen Van Linh, District 7, Ho Chi Minh, Vietnam");
+
+		Date now = new Date(1700000000000L);
+		User user = User.builder()
+				.hashKey("uuid#3")
+				.rangeKey("0b5b7a4e-2f43-4d5e-9a8c-6f1d2e3c4b5a")
+				.firstName("Tay")
+				.lastName("Luong Quoc")
+				.phone("+84912345678")
+				.email("tay.luong@example.com")
+				.password("$2a$10$7EqJtq98hPqEX7fNZaFWoOhi5BWX4Z6M6lKf2lS3e8B4y9bS9q1uK")
+				.address(address)
+				.status(UserStatus.ACTIVE)
+				.isFirstLogin(true)
+				.version(3L)
+				.createdAt(now)
+				.createdAtKey(now)
+				.updatedAt(now)
+				.statusAt(now)
+				.build();
+		user.setStatusKey(user.getHashKey() + "|" + UserStatus.ACTIVE.name());
+		user.setSearchKeys(SearchTokenizer.searchKeysOf(user));
+		return user;
+	}
+}
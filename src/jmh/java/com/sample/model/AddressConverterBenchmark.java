@@ -0,0 +1,43 @@
+package com.sample.model;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.sample.Fixtures;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Address <-> attribute in each encoding
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AddressConverterBenchmark {
+
+	@Param({"MAP", "BINARY", "DEFLATE"})
+	private AddressConverter.Encoding encoding;
+
+	private AddressConverter converter;
+	private Address address;
+	private AttributeValue value;
+
+	@Setup
+	public void setUp() {
+		converter = new AddressConverter(encoding);
+		address = Fixtures.user().getAddress();
+		value = converter.convert(address);
+	}
+
+	@Benchmark
+	public AttributeValue convert() {
+		return converter.convert(address);
+	}
+
+	@Benchmark
+	public Address unconvert() {
+		return converter.unconvert(value);
+	}
+}
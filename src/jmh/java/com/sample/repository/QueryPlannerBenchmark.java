@@ -0,0 +1,70 @@
+package com.sample.repository;
+
+import com.amazonaws.services.dynamodbv2.AbstractAmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapperConfig;
+import com.amazonaws.services.dynamodbv2.model.DescribeTableRequest;
+import com.amazonaws.services.dynamodbv2.model.DescribeTableResult;
+import com.amazonaws.services.dynamodbv2.model.GlobalSecondaryIndexDescription;
+import com.amazonaws.services.dynamodbv2.model.TableDescription;
+import com.sample.Fixtures;
+import com.sample.model.User;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Plan of a listing, made on every GET /user/users, against item counts of a table of 100k users
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QueryPlannerBenchmark {
+
+	@Param({"1", "8"})
+	private int shards;
+
+	private static final String HASH_KEY = "uuid";
+
+	private UserQueryPlanner planner;
+
+	@Setup
+	public void setUp() {
+		planner = new UserQueryPlanner(Fixtures.mapper(), new AbstractAmazonDynamoDB() {
+			@Override
+			public DescribeTableResult describeTable(DescribeTableRequest request) {
+				return new DescribeTableResult().withTable(new TableDescription()
+						.withItemCount(100_000L)
+						.withGlobalSecondaryIndexes(
+								index("phone-index", 100_000L), index("email-index", 100_000L),
+								index(User.STATUS_INDEX, 90_000L), index(User.FIRST_NAME_INDEX, 100_000L),
+								index(User.LAST_NAME_INDEX, 100_000L), index(User.EMAIL_SORT_INDEX, 100_000L),
+								index(User.CREATED_AT_INDEX, 100_000L)));
+			}
+		}, DynamoDBMapperConfig.DEFAULT, new ShardKeyStrategy(shards), new SimpleMeterRegistry(), Duration.ofHours(1));
+	}
+
+	@Benchmark
+	public String unfiltered() {
+		return planner.plan(HASH_KEY, null, null, null, null, null, null, null).filterExpression();
+	}
+
+	@Benchmark
+	public String byStatusOrderedByLastName() {
+		return planner.plan(HASH_KEY, null, null, null, null, null, "ACTIVE", "lastName:desc").filterExpression();
+	}
+
+	@Benchmark
+	public String byNameAndAddress() {
+		return planner.plan(HASH_KEY, "Tay", "Luong Quoc", null, null, "123 Nguyen Van Linh, District 7, Ho Chi Minh, Vietnam", null, null)
+				.filterExpression();
+	}
+
+	private static GlobalSecondaryIndexDescription index(String name, long itemCount) {
+		return new GlobalSecondaryIndexDescription().withIndexName(name).withItemCount(itemCount);
+	}
+}
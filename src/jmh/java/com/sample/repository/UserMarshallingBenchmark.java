@@ -0,0 +1,43 @@
+package com.sample.repository;
+
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapperTableModel;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.sample.Fixtures;
+import com.sample.model.User;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * User <-> item through the table model of DynamoDBMapper, done on every write and on every item read
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UserMarshallingBenchmark {
+
+	private DynamoDBMapperTableModel<User> model;
+	private User user;
+	private Map<String, AttributeValue> item;
+
+	@Setup
+	public void setUp() {
+		model = Fixtures.mapper().getTableModel(User.class);
+		user = Fixtures.user();
+		item = model.convert(user);
+	}
+
+	@Benchmark
+	public Map<String, AttributeValue> convert() {
+		return model.convert(user);
+	}
+
+	@Benchmark
+	public User unconvert() {
+		return model.unconvert(item);
+	}
+}
@@ -0,0 +1,41 @@
+package com.sample.repository;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.sample.Fixtures;
+import com.sample.dto.response.UserResponse;
+import com.sample.model.User;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * User to the JSON of a response, done for every user of a listing
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UserResponseBenchmark {
+
+	private ObjectWriter writer;
+	private User user;
+
+	@Setup
+	public void setUp() {
+		writer = new ObjectMapper().writerFor(UserResponse.class);
+		user = Fixtures.user();
+	}
+
+	@Benchmark
+	public UserResponse toResponse() {
+		return UserProjection.toResponse(user);
+	}
+
+	@Benchmark
+	public byte[] serialize() throws Exception {
+		return writer.writeValueAsBytes(UserProjection.toResponse(user));
+	}
+}
@@ -0,0 +1,31 @@
+package com.sample.service.impl;
+
+import com.sample.util.Constant;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Format check of isPhoneValid, run on every create, against String.matches which compiles the regex on every call
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PhoneValidationBenchmark {
+
+	@Param({"+84 912-345-6789", "(091) 234-5678", "0912 345 67a"})
+	private String phone;
+
+	@Benchmark
+	public boolean matches() {
+		return Constant.phonePattern.matcher(phone).matches();
+	}
+
+	@Benchmark
+	public boolean stringMatches() {
+		return phone.matches(Constant.phoneRegex);
+	}
+}
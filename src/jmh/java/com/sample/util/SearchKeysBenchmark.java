@@ -0,0 +1,37 @@
+package com.sample.util;
+
+import com.sample.Fixtures;
+import com.sample.model.User;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * searchKeys of a user, built on every create and update, and their tokens, indexed on every write of them
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SearchKeysBenchmark {
+
+	private User user;
+
+	@Setup
+	public void setUp() {
+		user = Fixtures.user();
+	}
+
+	@Benchmark
+	public String searchKeysOf() {
+		return SearchTokenizer.searchKeysOf(user);
+	}
+
+	@Benchmark
+	public Set<String> tokenize() {
+		return SearchTokenizer.tokenize(user.getSearchKeys());
+	}
+}
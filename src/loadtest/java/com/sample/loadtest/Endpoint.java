@@ -0,0 +1,44 @@
+package com.sample.loadtest;
+
+/**
+ * Endpoints of UserController driven by the load test, with their default share of the requests
+ */
+public enum Endpoint {
+
+	CREATE("POST /user/add", 10),
+	GET("GET /user/user/{hashKey}", 40),
+	UPDATE("PUT /user/user/{hashKey}", 15),
+	DEACTIVATE("PATCH /user/user/{hashKey}", 5),
+	LIST("GET /user/users", 20),
+	SEARCH("GET /user/users?search", 10);
+
+	/**
+	 * Header naming the endpoint of a request, the DynamoDB calls it makes are tagged with it, see EndpointScopeFilter
+	 */
+	public static final String HEADER = "x-Load-Test-Endpoint";
+
+	private final String route;
+	private final int weight;
+
+	Endpoint(String route, int weight) {
+		this.route = route;
+		this.weight = weight;
+	}
+
+	public String route() {
+		return route;
+	}
+
+	public int weight() {
+		return weight;
+	}
+
+	/**
+	 * Tag of the endpoint in user.repository.* metrics
+	 *
+	 * @return name, ex: load-test.create
+	 */
+	public String operation() {
+		return "load-test." + name().toLowerCase();
+	}
+}
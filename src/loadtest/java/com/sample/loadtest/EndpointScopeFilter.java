@@ -0,0 +1,35 @@
+package com.sample.loadtest;
+
+import com.sample.repository.UserRepositoryMetrics;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+
+/**
+ * Run a request of the load test in a scope of UserRepositoryMetrics named after its endpoint, so the capacity
+ * consumed by all of its DynamoDB calls (user, reservations, search postings, typeahead) is counted under one operation
+ */
+public class EndpointScopeFilter extends OncePerRequestFilter {
+
+	private final UserRepositoryMetrics userRepositoryMetrics;
+
+	public EndpointScopeFilter(UserRepositoryMetrics userRepositoryMetrics) {
+		this.userRepositoryMetrics = userRepositoryMetrics;
+	}
+
+	@Override
+	protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain) throws ServletException, IOException {
+		String endpoint = request.getHeader(Endpoint.HEADER);
+		if (endpoint == null) {
+			chain.doFilter(request, response);
+			return;
+		}
+		try (UserRepositoryMetrics.Scope scope = userRepositoryMetrics.start(Endpoint.valueOf(endpoint).operation())) {
+			chain.doFilter(request, response);
+		}
+	}
+}
@@ -0,0 +1,223 @@
+package com.sample.loadtest;
+
+import com.amazonaws.services.dynamodbv2.local.main.ServerRunner;
+import com.amazonaws.services.dynamodbv2.local.server.DynamoDBProxyServer;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.sample.SampleApplication;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.HdrHistogram.Histogram;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.convert.DurationStyle;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.File;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.net.ServerSocket;
+import java.time.Duration;
+import java.util.*;
+
+/**
+ * Load test of the application against an in-memory DynamoDB Local, run by: mvn -P load-test verify -DskipTests
+ * <p>
+ * It starts DynamoDB Local, boots the application on it (the tables and indexes are created at startup),
+ * seeds users, then sends a mix of requests to UserController for a warm-up and for the measured duration.
+ * The report gives by endpoint the throughput, the latency percentiles seen by the client and the capacity consumed by its DynamoDB calls,
+ * and the garbage collections of the measured run; it is printed and written to load-test-result.json of the working directory, target when run by Maven.
+ * The collections are of the whole JVM, DynamoDB Local and the clients included, so compare them between runs at the same rate.
+ * <p>
+ * Arguments, key=value: users, threads, rate (requests per second, 0 for closed loop), warmup, duration, mix (ex: get=80,list=20);
+ * any other key with a dot is a property of the application, ex: amazon.dynamodb.user.shards=4
+ */
+public class LoadTest {
+
+	private static final String CAPACITY = "user.repository.capacity";
+
+	public static void main(String[] args) throws Exception {
+		Map<String, String> options = new LinkedHashMap<>(Map.of("users", "1000", "threads", "16", "rate", "0", "warmup", "10s", "duration", "60s"));
+		List<String> properties = new ArrayList<>();
+		for (String arg : args) {
+			String[] pair = arg.split("=", 2);
+			if (pair.length != 2) {
+				throw new IllegalArgumentException("Argument is not key=value, arg=" + arg);
+			}
+			if (pair[0].contains(".")) {
+				properties.add("--" + arg);
+			} else {
+				options.put(pair[0], pair[1]);
+			}
+		}
+		int users = Integer.parseInt(options.get("users"));
+		int threads = Integer.parseInt(options.get("threads"));
+		int rate = Integer.parseInt(options.get("rate"));
+		Duration warmup = DurationStyle.detectAndParse(options.get("warmup"));
+		Duration duration = DurationStyle.detectAndParse(options.get("duration"));
+		Map<Endpoint, Integer> mix = mixOf(options.get("mix"));
+
+		int port = freePort();
+		DynamoDBProxyServer dynamoDB = ServerRunner.createServerFromCommandLineArgs(new String[]{"-inMemory", "-port", String.valueOf(port)});
+		dynamoDB.start();
+
+		List<String> arguments = new ArrayList<>(List.of(
+				"--spring.profiles.active=dev",
+				"--server.port=0",
+				"--amazon.dynamodb.endpoint=http://localhost:" + port,
+				"--amazon.dynamodb.region=us-east-1",
+				"--amazon.dynamodb.accessKey=loadtest",
+				"--amazon.dynamodb.secretKey=loadtest",
+				"--amazon.dynamodb.schema.create=true",
+				"--logging.level.com.sample=WARN",
+				"--logging.level.com.amazonaws=WARN"));
+		arguments.addAll(properties);
+		int status = 0;
+		ConfigurableApplicationContext context = null;
+		try {
+			context = new SpringApplicationBuilder(SampleApplication.class, EndpointScopeFilter.class)
+					.run(arguments.toArray(String[]::new));
+			int serverPort = ((WebServerApplicationContext) context).getWebServer().getPort();
+			MeterRegistry meterRegistry = context.getBean(MeterRegistry.class);
+			Workload workload = new Workload("http://localhost:" + serverPort);
+
+			System.out.printf("Seeding %d users ...%n", users);
+			workload.seed(users, threads);
+			System.out.printf("Warming up for %s, then measuring for %s with %d threads, rate=%s, mix=%s ...%n",
+					warmup, duration, threads, rate > 0 ? rate + "/s" : "unbounded", mix);
+			workload.run(mix, threads, rate, warmup);
+			workload.reset();
+			Map<String, Double> before = capacity(meterRegistry);
+			long[] gcBefore = gc();
+			Duration elapsed = workload.run(mix, threads, rate, duration);
+			long[] gcAfter = gc();
+			Map<String, Double> after = capacity(meterRegistry);
+
+			Map<String, Object> report = new LinkedHashMap<>();
+			report.put("rate", rate);
+			report.put("seconds", elapsed.toNanos() / 1e9);
+			report.put("endpoints", report(workload, mix.keySet(), elapsed, before, after));
+			report.put("gcCount", gcAfter[0] - gcBefore[0]);
+			report.put("gcTimeMs", gcAfter[1] - gcBefore[1]);
+			print(report);
+			File result = new File("load-test-result.json");
+			new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT).writeValue(result, report);
+			System.out.printf("Result is written to %s%n", result.getPath());
+		} catch (Exception e) {
+			e.printStackTrace();
+			status = 1;
+		} finally {
+			if (context != null) {
+				context.close();
+			}
+			dynamoDB.stop();
+		}
+		// DynamoDB Local leaves non-daemon threads behind
+		System.exit(status);
+	}
+
+	private static List<Map<String, Object>> report(Workload workload, Set<Endpoint> endpoints, Duration elapsed,
+													Map<String, Double> before, Map<String, Double> after) {
+		double seconds = elapsed.toNanos() / 1e9;
+		List<Map<String, Object>> rows = new ArrayList<>();
+		for (Endpoint endpoint : endpoints) {
+			Workload.Stats stats = workload.stats(endpoint);
+			Histogram latency = stats.latency();
+			long requests = latency.getTotalCount();
+			String read = endpoint.operation() + "|read";
+			String write = endpoint.operation() + "|write";
+			double readUnits = after.getOrDefault(read, 0.0) - before.getOrDefault(read, 0.0);
+			double writeUnits = after.getOrDefault(write, 0.0) - before.getOrDefault(write, 0.0);
+
+			Map<String, Object> row = new LinkedHashMap<>();
+			row.put("endpoint", endpoint.route());
+			row.put("requests", requests);
+			row.put("errors", stats.errors());
+			row.put("throughput", requests / seconds);
+			row.put("p50Ms", millis(latency, 50));
+			row.put("p95Ms", millis(latency, 95));
+			row.put("p99Ms", millis(latency, 99));
+			row.put("maxMs", latency.getMaxValue() / 1000.0);
+			row.put("readUnits", readUnits);
+			row.put("writeUnits", writeUnits);
+			row.put("readUnitsPerRequest", requests == 0 ? 0 : readUnits / requests);
+			row.put("writeUnitsPerRequest", requests == 0 ? 0 : writeUnits / requests);
+			rows.add(row);
+		}
+		return rows;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static void print(Map<String, Object> report) {
+		double seconds = (double) report.get("seconds");
+		String header = "%-28s %9s %7s %9s %9s %9s %9s %9s %10s %10s%n";
+		String line = "%-28s %9d %7d %9.1f %9.2f %9.2f %9.2f %9.2f %10.2f %10.2f%n";
+		System.out.printf("%nMeasured for %.1fs%n", seconds);
+		System.out.printf(header, "endpoint", "requests", "errors", "req/s", "p50 ms", "p95 ms", "p99 ms", "max ms", "RCU/req", "WCU/req");
+		long requests = 0;
+		for (Map<String, Object> row : (List<Map<String, Object>>) report.get("endpoints")) {
+			requests += (long) row.get("requests");
+			System.out.printf(line, row.get("endpoint"), row.get("requests"), row.get("errors"), row.get("throughput"),
+					row.get("p50Ms"), row.get("p95Ms"), row.get("p99Ms"), row.get("maxMs"),
+					row.get("readUnitsPerRequest"), row.get("writeUnitsPerRequest"));
+		}
+		System.out.printf("%-28s %9d %7s %9.1f%n", "total", requests, "", requests / seconds);
+		long gcCount = (long) report.get("gcCount");
+		System.out.printf("%nGC: %d collections (%.1f/s), %d ms%n", gcCount, gcCount / seconds, report.get("gcTimeMs"));
+	}
+
+	/**
+	 * Garbage collections so far of the JVM
+	 *
+	 * @return count and time in ms, summed over the collectors
+	 */
+	private static long[] gc() {
+		long count = 0;
+		long time = 0;
+		for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+			count += Math.max(collector.getCollectionCount(), 0);
+			time += Math.max(collector.getCollectionTime(), 0);
+		}
+		return new long[]{count, time};
+	}
+
+	/**
+	 * Capacity consumed so far by the requests of the load test
+	 *
+	 * @param meterRegistry
+	 * @return units by operation|type, ex: load-test.get|read
+	 */
+	private static Map<String, Double> capacity(MeterRegistry meterRegistry) {
+		Map<String, Double> units = new HashMap<>();
+		for (Counter counter : meterRegistry.find(CAPACITY).counters()) {
+			String key = counter.getId().getTag("operation") + "|" + counter.getId().getTag("type");
+			units.merge(key, counter.count(), Double::sum);
+		}
+		return units;
+	}
+
+	private static Map<Endpoint, Integer> mixOf(String value) {
+		Map<Endpoint, Integer> mix = new EnumMap<>(Endpoint.class);
+		if (value == null) {
+			for (Endpoint endpoint : Endpoint.values()) {
+				mix.put(endpoint, endpoint.weight());
+			}
+			return mix;
+		}
+		for (String part : value.split(",")) {
+			String[] pair = part.split(":|=", 2);
+			mix.put(Endpoint.valueOf(pair[0].trim().toUpperCase()), Integer.parseInt(pair[1].trim()));
+		}
+		return mix;
+	}
+
+	private static double millis(Histogram latency, double percentile) {
+		return latency.getValueAtPercentile(percentile) / 1000.0;
+	}
+
+	private static int freePort() throws Exception {
+		try (ServerSocket socket = new ServerSocket(0)) {
+			return socket.getLocalPort();
+		}
+	}
+}
@@ -0,0 +1,268 @@
+package com.sample.loadtest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import static com.sample.util.Constant.apiKey;
+
+/**
+ * Mixed requests to UserController over HTTP, by a fixed number of threads which each send a request once the previous one is answered
+ * (closed loop) or, with a rate, at fixed intervals shared by the threads, with the latency of every answered request recorded by endpoint
+ */
+public class Workload {
+
+	private static final String HASH_KEY = "uuid";
+
+	private static final String[] FIRST_NAMES = {"Tay", "An", "Binh", "Chi", "Dung", "Giang", "Hoa", "Khanh", "Linh", "Minh", "Nam", "Phuong", "Quan", "Son", "Thao", "Vy"};
+	private static final String[] LAST_NAMES = {"Luong", "Nguyen", "Tran", "Le", "Pham", "Hoang", "Vu", "Dang", "Bui", "Do", "Ho", "Ngo"};
+	private static final String[] STREETS = {"Nguyen Van Linh", "Le Loi", "Hai Ba Trung", "Tran Hung Dao", "Vo Van Kiet", "Dien Bien Phu"};
+	private static final String[] CITIES = {"Ho Chi Minh", "Ha Noi", "Da Nang", "Hue", "Can Tho", "Hai Phong"};
+	private static final String[] ORDERS = {"lastName", "firstName:desc", "createdAt:desc", "email"};
+
+	private final HttpClient httpClient = HttpClient.newBuilder()
+			.version(HttpClient.Version.HTTP_1_1)
+			.connectTimeout(Duration.ofSeconds(5))
+			.build();
+	private final ObjectMapper objectMapper = new ObjectMapper();
+	private final String baseUrl;
+	private final AtomicLong sequence = new AtomicLong();
+	private final List<String> ids = Collections.synchronizedList(new ArrayList<>());
+	private final Map<Endpoint, Stats> stats = new EnumMap<>(Endpoint.class);
+
+	public Workload(String baseUrl) {
+		this.baseUrl = baseUrl;
+		for (Endpoint endpoint : Endpoint.values()) {
+			stats.put(endpoint, new Stats());
+		}
+	}
+
+	/**
+	 * Create users through POST /user/add, out of the statistics
+	 *
+	 * @param users
+	 * @param threads
+	 */
+	public void seed(int users, int threads) throws InterruptedException {
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			List<Callable<String>> calls = new ArrayList<>(users);
+			for (int i = 0; i < users; i++) {
+				calls.add(() -> create(null));
+			}
+			for (Future<String> future : executor.invokeAll(calls)) {
+				future.get();
+			}
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Failed to seed users", e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Send requests of the mix from threads until the duration is over
+	 *
+	 * @param mix      weight by endpoint, 0 or missing for none
+	 * @param threads
+	 * @param rate     requests per second of all threads, 0 for as many as they can send
+	 * @param duration
+	 * @return wall-clock time of the run
+	 */
+	public Duration run(Map<Endpoint, Integer> mix, int threads, int rate, Duration duration) throws InterruptedException {
+		Endpoint[] picks = mix.entrySet().stream()
+				.flatMap(entry -> Collections.nCopies(entry.getValue(), entry.getKey()).stream())
+				.toArray(Endpoint[]::new);
+		if (picks.length == 0) {
+			throw new IllegalArgumentException("Mix has no endpoint");
+		}
+		long interval = rate > 0 ? TimeUnit.SECONDS.toNanos(threads) / rate : 0;
+		long deadline = System.nanoTime() + duration.toNanos();
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		long start = System.nanoTime();
+		for (int i = 0; i < threads; i++) {
+			long first = start + interval * i / threads;
+			executor.execute(() -> {
+				ThreadLocalRandom random = ThreadLocalRandom.current();
+				for (long next = first; next < deadline && System.nanoTime() < deadline; next += interval) {
+					// a late thread sends at once rather than skipping, so the rate holds while the server keeps up
+					LockSupport.parkNanos(next - System.nanoTime());
+					call(picks[random.nextInt(picks.length)]);
+					if (interval == 0) {
+						next = System.nanoTime();
+					}
+				}
+			});
+		}
+		executor.shutdown();
+		executor.awaitTermination(duration.toMillis() + 60_000, TimeUnit.MILLISECONDS);
+		return Duration.ofNanos(System.nanoTime() - start);
+	}
+
+	/**
+	 * Drop the statistics, ex: of the warm-up
+	 */
+	public void reset() {
+		stats.values().forEach(Stats::reset);
+	}
+
+	public Stats stats(Endpoint endpoint) {
+		return stats.get(endpoint);
+	}
+
+	private void call(Endpoint endpoint) {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		long start = System.nanoTime();
+		boolean ok;
+		try {
+			ok = switch (endpoint) {
+				case CREATE -> create(endpoint) != null;
+				case GET -> send(endpoint, get("/user/user/" + HASH_KEY + "?rangeKey=" + anyId())) != null;
+				case UPDATE -> send(endpoint, HttpRequest.newBuilder(uri("/user/user/" + HASH_KEY))
+						.PUT(json(Map.of("hashKey", HASH_KEY, "rangeKey", anyId(), "firstName", pick(FIRST_NAMES), "lastName", pick(LAST_NAMES))))) != null;
+				case DEACTIVATE -> send(endpoint, HttpRequest.newBuilder(uri("/user/user/" + HASH_KEY + "?rangeKey=" + anyId()))
+						.method("PATCH", HttpRequest.BodyPublishers.noBody())) != null;
+				case LIST -> send(endpoint, get("/user/users?hashKey=" + HASH_KEY + switch (random.nextInt(4)) {
+					case 0 -> "&firstName=" + query(pick(FIRST_NAMES));
+					case 1 -> "&lastName=" + query(pick(LAST_NAMES)) + "&orderBy=createdAt:desc";
+					case 2 -> "&status=INACTIVE";
+					default -> "&orderBy=" + pick(ORDERS);
+				})) != null;
+				case SEARCH -> send(endpoint, get("/user/users?hashKey=" + HASH_KEY + "&search="
+						+ query(random.nextBoolean() ? pick(FIRST_NAMES) + " " + pick(LAST_NAMES) : pick(CITIES)))) != null;
+			};
+		} catch (RuntimeException e) {
+			ok = false;
+		}
+		stats.get(endpoint).record(ok, System.nanoTime() - start);
+	}
+
+	private String create(Endpoint endpoint) {
+		long n = sequence.incrementAndGet();
+		String digits = String.valueOf(9_000_000_000L + n);
+		String firstName = pick(FIRST_NAMES);
+		String lastName = pick(LAST_NAMES);
+		String street = (n % 500 + 1) + " " + pick(STREETS);
+		String city = pick(CITIES);
+
+		Map<String, Object> address = new LinkedHashMap<>();
+		address.put("street", street);
+		address.put("city", city);
+		address.put("country", "Vietnam");
+		address.put("text", street + ", " + city + ", Vietnam");
+		Map<String, Object> body = new LinkedHashMap<>();
+		body.put("rangeKey", HASH_KEY);
+		body.put("firstName", firstName);
+		body.put("lastName", lastName);
+		body.put("phone", "+84 " + digits.substring(0, 3) + "-" + digits.substring(3, 6) + "-" + digits.substring(6));
+		body.put("email", firstName.toLowerCase() + "." + lastName.toLowerCase() + "." + n + "@load.test");
+		body.put("password", "password-" + n);
+		body.put("address", address);
+
+		String id = send(endpoint, HttpRequest.newBuilder(uri("/user/add")).POST(json(body)));
+		if (id != null) {
+			ids.add(id);
+		}
+		return id;
+	}
+
+	/**
+	 * Send request with the key and the endpoint header
+	 *
+	 * @param endpoint null for a request out of the statistics
+	 * @param request
+	 * @return body, null when the status is not 2xx
+	 */
+	private String send(Endpoint endpoint, HttpRequest.Builder request) {
+		request.header(apiKey, "load-test")
+				.header("Content-Type", "application/json")
+				.timeout(Duration.ofSeconds(30));
+		if (endpoint != null) {
+			request.header(Endpoint.HEADER, endpoint.name());
+		}
+		try {
+			HttpResponse<String> response = httpClient.send(request.build(), HttpResponse.BodyHandlers.ofString());
+			return response.statusCode() / 100 == 2 ? response.body() : null;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private HttpRequest.Builder get(String path) {
+		return HttpRequest.newBuilder(uri(path)).GET();
+	}
+
+	private URI uri(String path) {
+		return URI.create(baseUrl + path);
+	}
+
+	private HttpRequest.BodyPublisher json(Object body) {
+		try {
+			return HttpRequest.BodyPublishers.ofByteArray(objectMapper.writeValueAsBytes(body));
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private String anyId() {
+		synchronized (ids) {
+			return ids.get(ThreadLocalRandom.current().nextInt(ids.size()));
+		}
+	}
+
+	private static String pick(String[] values) {
+		return values[ThreadLocalRandom.current().nextInt(values.length)];
+	}
+
+	private static String query(String value) {
+		return URLEncoder.encode(value, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Answered requests of an endpoint, latency in microseconds
+	 */
+	public static class Stats {
+
+		private final Histogram latency = new ConcurrentHistogram(3);
+		private final LongAdder errors = new LongAdder();
+
+		void record(boolean ok, long nanos) {
+			if (ok) {
+				latency.recordValue(TimeUnit.NANOSECONDS.toMicros(nanos));
+			} else {
+				errors.increment();
+			}
+		}
+
+		void reset() {
+			latency.reset();
+			errors.reset();
+		}
+
+		public Histogram latency() {
+			return latency;
+		}
+
+		public long errors() {
+			return errors.sum();
+		}
+	}
+}
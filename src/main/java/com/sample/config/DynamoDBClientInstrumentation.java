@@ -0,0 +1,204 @@
+package com.sample.config;
+
+import com.amazonaws.AmazonWebServiceRequest;
+import com.amazonaws.Request;
+import com.amazonaws.Response;
+import com.amazonaws.SdkBaseException;
+import com.amazonaws.handlers.HandlerAfterAttemptContext;
+import com.amazonaws.handlers.HandlerBeforeAttemptContext;
+import com.amazonaws.handlers.RequestHandler2;
+import com.amazonaws.retry.RetryPolicy;
+import com.amazonaws.retry.RetryUtils;
+import com.amazonaws.services.dynamodbv2.model.*;
+import com.google.common.util.concurrent.RateLimiter;
+import com.sample.repository.UserRepositoryMetrics;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Rate limit and metrics of the blocking DynamoDB client: connections in use against the pool size, retries, time waited for a permit.
+ * An attempt holds one pooled connection, so attempts in flight reaching the pool size means requests queue on the pool.
+ * <p>
+ * Every call returns its consumed capacity, which is counted with the items scanned and returned by a query or a scan and the throttled calls,
+ * tagged by the operation of UserRepository in which it is made ("other" outside of one) and the table or index it reads.
+ */
+public class DynamoDBClientInstrumentation extends RequestHandler2 {
+
+    private static final String OTHER = "other";
+
+    private final RateLimiter rateLimiter;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final MeterRegistry meterRegistry;
+    private final Timer rateLimitWait;
+
+    public DynamoDBClientInstrumentation(DynamoDBClientProperties properties, MeterRegistry meterRegistry) {
+        double permitsPerSecond = properties.rateLimit().permitsPerSecond();
+        this.rateLimiter = permitsPerSecond > 0 ? RateLimiter.create(permitsPerSecond) : null;
+        this.meterRegistry = meterRegistry;
+        Gauge.builder("dynamodb.client.connections.in.use", inFlight, AtomicInteger::get).register(meterRegistry);
+        Gauge.builder("dynamodb.client.connections.max", properties, DynamoDBClientProperties::maxConnections).register(meterRegistry);
+        this.rateLimitWait = Timer.builder("dynamodb.client.rate.limit.wait").register(meterRegistry);
+    }
+
+    @Override
+    public AmazonWebServiceRequest beforeExecution(AmazonWebServiceRequest request) {
+        if (rateLimiter != null) {
+            double waited = rateLimiter.acquire();
+            rateLimitWait.record((long) (waited * 1_000_000), TimeUnit.MICROSECONDS);
+        }
+        UserRepositoryMetrics.Scope scope = UserRepositoryMetrics.current();
+        if (scope != null) {
+            scope.request();
+        }
+        returnConsumedCapacity(request);
+        return request;
+    }
+
+    @Override
+    public void beforeAttempt(HandlerBeforeAttemptContext context) {
+        inFlight.incrementAndGet();
+    }
+
+    @Override
+    public void afterAttempt(HandlerAfterAttemptContext context) {
+        inFlight.decrementAndGet();
+    }
+
+    @Override
+    public void afterResponse(Request<?> request, Response<?> response) {
+        Object original = request.getOriginalRequest();
+        Object result = response.getAwsResponse();
+        String operation = operation();
+        String index = indexOf(original);
+
+        double capacity = 0;
+        if (result instanceof GetItemResult x) {
+            capacity = units(x.getConsumedCapacity());
+        } else if (result instanceof PutItemResult x) {
+            capacity = units(x.getConsumedCapacity());
+        } else if (result instanceof UpdateItemResult x) {
+            capacity = units(x.getConsumedCapacity());
+        } else if (result instanceof DeleteItemResult x) {
+            capacity = units(x.getConsumedCapacity());
+        } else if (result instanceof QueryResult x) {
+            capacity = units(x.getConsumedCapacity());
+            items(operation, index, x.getScannedCount(), x.getCount());
+        } else if (result instanceof ScanResult x) {
+            capacity = units(x.getConsumedCapacity());
+            items(operation, index, x.getScannedCount(), x.getCount());
+        } else if (result instanceof BatchGetItemResult x) {
+            capacity = units(x.getConsumedCapacity());
+        } else if (result instanceof BatchWriteItemResult x) {
+            capacity = units(x.getConsumedCapacity());
+        } else if (result instanceof TransactGetItemsResult x) {
+            capacity = units(x.getConsumedCapacity());
+        } else if (result instanceof TransactWriteItemsResult x) {
+            capacity = units(x.getConsumedCapacity());
+        }
+        if (capacity > 0) {
+            Counter.builder("user.repository.capacity")
+                    .tag("operation", operation)
+                    .tag("index", index)
+                    .tag("type", isRead(original) ? "read" : "write")
+                    .register(meterRegistry)
+                    .increment(capacity);
+        }
+    }
+
+    @Override
+    public void afterError(Request<?> request, Response<?> response, Exception e) {
+        if (e instanceof SdkBaseException exception && RetryUtils.isThrottlingException(exception)) {
+            Counter.builder("user.repository.throttles")
+                    .tag("operation", operation())
+                    .tag("index", indexOf(request.getOriginalRequest()))
+                    .register(meterRegistry)
+                    .increment();
+        }
+    }
+
+    /**
+     * Retry condition which counts the retries it allows
+     *
+     * @param condition
+     * @return counted condition
+     */
+    public RetryPolicy.RetryCondition counted(RetryPolicy.RetryCondition condition) {
+        return (request, exception, retriesAttempted) -> {
+            boolean retry = condition.shouldRetry(request, exception, retriesAttempted);
+            if (retry) {
+                Counter.builder("dynamodb.client.retries")
+                        .tag("operation", operation())
+                        .tag("throttled", String.valueOf(RetryUtils.isThrottlingException(exception)))
+                        .register(meterRegistry)
+                        .increment();
+            }
+            return retry;
+        };
+    }
+
+    private void items(String operation, String index, Integer scanned, Integer returned) {
+        DistributionSummary.builder("user.repository.items.scanned").tag("operation", operation).tag("index", index)
+                .register(meterRegistry).record(scanned == null ? 0 : scanned);
+        DistributionSummary.builder("user.repository.items.returned").tag("operation", operation).tag("index", index)
+                .register(meterRegistry).record(returned == null ? 0 : returned);
+    }
+
+    private static void returnConsumedCapacity(AmazonWebServiceRequest request) {
+        if (request instanceof GetItemRequest x && x.getReturnConsumedCapacity() == null) {
+            x.withReturnConsumedCapacity(ReturnConsumedCapacity.TOTAL);
+        } else if (request instanceof PutItemRequest x && x.getReturnConsumedCapacity() == null) {
+            x.withReturnConsumedCapacity(ReturnConsumedCapacity.TOTAL);
+        } else if (request instanceof UpdateItemRequest x && x.getReturnConsumedCapacity() == null) {
+            x.withReturnConsumedCapacity(ReturnConsumedCapacity.TOTAL);
+        } else if (request instanceof DeleteItemRequest x && x.getReturnConsumedCapacity() == null) {
+            x.withReturnConsumedCapacity(ReturnConsumedCapacity.TOTAL);
+        } else if (request instanceof QueryRequest x && x.getReturnConsumedCapacity() == null) {
+            x.withReturnConsumedCapacity(ReturnConsumedCapacity.TOTAL);
+        } else if (request instanceof ScanRequest x && x.getReturnConsumedCapacity() == null) {
+            x.withReturnConsumedCapacity(ReturnConsumedCapacity.TOTAL);
+        } else if (request instanceof BatchGetItemRequest x && x.getReturnConsumedCapacity() == null) {
+            x.withReturnConsumedCapacity(ReturnConsumedCapacity.TOTAL);
+        } else if (request instanceof BatchWriteItemRequest x && x.getReturnConsumedCapacity() == null) {
+            x.withReturnConsumedCapacity(ReturnConsumedCapacity.TOTAL);
+        } else if (request instanceof TransactGetItemsRequest x && x.getReturnConsumedCapacity() == null) {
+            x.withReturnConsumedCapacity(ReturnConsumedCapacity.TOTAL);
+        } else if (request instanceof TransactWriteItemsRequest x && x.getReturnConsumedCapacity() == null) {
+            x.withReturnConsumedCapacity(ReturnConsumedCapacity.TOTAL);
+        }
+    }
+
+    private static boolean isRead(Object request) {
+        return request instanceof GetItemRequest || request instanceof QueryRequest || request instanceof ScanRequest
+                || request instanceof BatchGetItemRequest || request instanceof TransactGetItemsRequest;
+    }
+
+    private static String indexOf(Object request) {
+        String indexName = null;
+        if (request instanceof QueryRequest x) {
+            indexName = x.getIndexName();
+        } else if (request instanceof ScanRequest x) {
+            indexName = x.getIndexName();
+        }
+        return indexName == null ? UserRepositoryMetrics.TABLE : indexName;
+    }
+
+    private static String operation() {
+        UserRepositoryMetrics.Scope scope = UserRepositoryMetrics.current();
+        return scope == null ? OTHER : scope.operation();
+    }
+
+    private static double units(ConsumedCapacity capacity) {
+        return capacity == null || capacity.getCapacityUnits() == null ? 0 : capacity.getCapacityUnits();
+    }
+
+    private static double units(List<ConsumedCapacity> capacities) {
+        return capacities == null ? 0 : capacities.stream().mapToDouble(DynamoDBClientInstrumentation::units).sum();
+    }
+}
@@ -0,0 +1,55 @@
+package com.sample.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.time.Duration;
+
+/**
+ * HTTP client of DynamoDB, amazon.dynamodb.http.* of application-*.yml
+ *
+ * @param maxConnections         connection pool of the client, the bound of in-flight requests
+ * @param connectionTtl          a pooled connection is closed after it, so DNS changes of the endpoint are picked up; -1 for never
+ * @param connectionMaxIdle      an idle pooled connection is closed after it
+ * @param tcpKeepAlive           keep idle connections open through NAT and load balancers
+ * @param connectionTimeout      to open a connection
+ * @param socketTimeout          between two packets of a response
+ * @param requestTimeout         of one HTTP attempt
+ * @param clientExecutionTimeout of a call including its retries, so a slow DynamoDB does not hold a servlet thread longer
+ * @param retry
+ * @param rateLimit
+ */
+@ConfigurationProperties(prefix = "amazon.dynamodb.http")
+public record DynamoDBClientProperties(@DefaultValue("50") int maxConnections,
+                                       @DefaultValue("60s") Duration connectionTtl,
+                                       @DefaultValue("60s") Duration connectionMaxIdle,
+                                       @DefaultValue("true") boolean tcpKeepAlive,
+                                       @DefaultValue("1s") Duration connectionTimeout,
+                                       @DefaultValue("5s") Duration socketTimeout,
+                                       @DefaultValue("3s") Duration requestTimeout,
+                                       @DefaultValue("10s") Duration clientExecutionTimeout,
+                                       @DefaultValue Retry retry,
+                                       @DefaultValue RateLimit rateLimit) {
+
+    /**
+     * Retries of throttled and failed calls with capped exponential backoff: full jitter, equal jitter when throttled
+     *
+     * @param maxRetries         10 like the SDK default of DynamoDB, PredefinedRetryPolicies.DYNAMODB_DEFAULT_MAX_ERROR_RETRY
+     * @param baseDelay          of a failed call
+     * @param throttledBaseDelay of a throttled call
+     * @param maxDelay
+     */
+    public record Retry(@DefaultValue("10") int maxRetries,
+                        @DefaultValue("25ms") Duration baseDelay,
+                        @DefaultValue("500ms") Duration throttledBaseDelay,
+                        @DefaultValue("5s") Duration maxDelay) {
+    }
+
+    /**
+     * Client side rate limit of the calls of this instance, so a burst queues here instead of being throttled by DynamoDB
+     *
+     * @param permitsPerSecond 0 for no limit
+     */
+    public record RateLimit(@DefaultValue("0") double permitsPerSecond) {
+    }
+}
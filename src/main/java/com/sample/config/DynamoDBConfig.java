@@ -1,18 +1,47 @@
 package com.sample.config;
 
+import com.amazonaws.ClientConfiguration;
 import com.amazonaws.auth.AWSStaticCredentialsProvider;
 import com.amazonaws.auth.BasicAWSCredentials;
 import com.amazonaws.client.builder.AwsClientBuilder;
+import com.amazonaws.retry.PredefinedBackoffStrategies;
+import com.amazonaws.retry.PredefinedRetryPolicies;
+import com.amazonaws.retry.RetryPolicy;
 import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
 import com.amazonaws.services.dynamodbv2.AmazonDynamoDBClientBuilder;
+import com.amazonaws.services.dynamodbv2.datamodeling.ArgumentUnmarshaller;
+import com.amazonaws.services.dynamodbv2.datamodeling.ConversionSchema;
+import com.amazonaws.services.dynamodbv2.datamodeling.ConversionSchemas;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapperConfig;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.sample.model.Address;
+import com.sample.model.AddressConverter;
+import com.sample.repository.UserRepository;
+import com.sample.repository.UserRepositoryMetrics;
+import com.sample.util.UserStatus;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.aop.framework.ProxyFactory;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnThreading;
+import org.springframework.boot.autoconfigure.thread.Threading;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.VirtualThreadTaskExecutor;
+
+import java.lang.reflect.Method;
+import java.util.Locale;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
 
 
 @Configuration
+@EnableConfigurationProperties(DynamoDBClientProperties.class)
 public class DynamoDBConfig {
 
     @Value("${amazon.dynamodb.endpoint}")
@@ -30,25 +59,151 @@ public class DynamoDBConfig {
     @Value("${spring.profiles.active:Unknown}")
     private String activeProfile;
 
+    @Value("${amazon.dynamodb.query.threads:16}")
+    private int queryThreads;
+
+    @Value("${amazon.dynamodb.user.address-encoding:map}")
+    private String addressEncoding;
+
     @Bean
-    public DynamoDBMapper dynamoDBMapper() {
-        return new DynamoDBMapper(buildAmazonDB(), dynamoDBMapperConfig());
+    public DynamoDBMapper dynamoDBMapper(AmazonDynamoDB amazonDynamoDB, DynamoDBMapperConfig dynamoDBMapperConfig) {
+        return new DynamoDBMapper(amazonDynamoDB, dynamoDBMapperConfig);
     }
 
-    private AmazonDynamoDB buildAmazonDB() {
+    /**
+     * Time the operations of UserRepository, its self-invocations are part of the calling operation
+     *
+     * @param userRepositoryMetrics
+     * @return post processor proxying UserRepository
+     */
+    @Bean
+    static BeanPostProcessor userRepositoryMetricsPostProcessor(ObjectProvider<UserRepositoryMetrics> userRepositoryMetrics) {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) {
+                if (!(bean instanceof UserRepository)) {
+                    return bean;
+                }
+                ProxyFactory proxyFactory = new ProxyFactory(bean);
+                proxyFactory.setProxyTargetClass(true);
+                proxyFactory.addAdvice(userRepositoryMetrics.getObject());
+                return proxyFactory.getProxy();
+            }
+        };
+    }
+
+    /**
+     * Low level client, shared by DynamoDBMapper and the requests the mapper cannot express (ex: UpdateItem)
+     *
+     * @param properties
+     * @param meterRegistry
+     * @return client
+     */
+    @Bean(destroyMethod = "shutdown")
+    public AmazonDynamoDB amazonDynamoDB(DynamoDBClientProperties properties, MeterRegistry meterRegistry) {
+        DynamoDBClientInstrumentation instrumentation = new DynamoDBClientInstrumentation(properties, meterRegistry);
+        DynamoDBClientProperties.Retry retry = properties.retry();
+        RetryPolicy retryPolicy = new RetryPolicy(
+                instrumentation.counted(PredefinedRetryPolicies.DEFAULT_RETRY_CONDITION),
+                new PredefinedBackoffStrategies.SDKDefaultBackoffStrategy((int) retry.baseDelay().toMillis(),
+                        (int) retry.throttledBaseDelay().toMillis(), (int) retry.maxDelay().toMillis()),
+                retry.maxRetries(), true);
+
         return AmazonDynamoDBClientBuilder.standard()
                 .withEndpointConfiguration(new AwsClientBuilder.EndpointConfiguration(amazonDynamoDBEndpoint, amazonDynamoDBRegion))
+                .withClientConfiguration(new ClientConfiguration()
+                        .withMaxConnections(properties.maxConnections())
+                        .withConnectionTTL(properties.connectionTtl().isNegative() ? -1 : properties.connectionTtl().toMillis())
+                        .withConnectionMaxIdleMillis(properties.connectionMaxIdle().toMillis())
+                        .withTcpKeepAlive(properties.tcpKeepAlive())
+                        .withConnectionTimeout((int) properties.connectionTimeout().toMillis())
+                        .withSocketTimeout((int) properties.socketTimeout().toMillis())
+                        .withRequestTimeout((int) properties.requestTimeout().toMillis())
+                        .withClientExecutionTimeout((int) properties.clientExecutionTimeout().toMillis())
+                        .withRetryPolicy(retryPolicy))
+                .withRequestHandlers(instrumentation)
                 .withCredentials(new AWSStaticCredentialsProvider(new BasicAWSCredentials(amazonAWSAccessKey, amazonAWSSecretKey))).build();
     }
 
     @Bean
-    DynamoDBMapperConfig dynamoDBMapperConfig() {
+    AddressConverter addressConverter() {
+        return new AddressConverter(AddressConverter.Encoding.valueOf(addressEncoding.toUpperCase(Locale.ROOT)));
+    }
+
+    /**
+     * Config of DynamoDBMapper, addresses are converted by addressConverter
+     *
+     * @param addressConverter
+     * @return config
+     */
+    @Bean
+    DynamoDBMapperConfig dynamoDBMapperConfig(AddressConverter addressConverter) {
+        return new DynamoDBMapperConfig.Builder()
+                .withTableNameOverride(DynamoDBMapperConfig.TableNameOverride.withTableNamePrefix(tableNamePrefix()))
+                .withConversionSchema(conversionSchema(addressConverter))
+                .build();
+    }
+
+    /**
+     * Conversion schema handing addressConverter to the mapper: DynamoDBTypeConverterFactory only converts into string,
+     * number or binary attributes, and the mapper instantiates a DynamoDBTypeConverted converter itself.
+     * A custom schema converts every attribute without a converter annotation, so an enum, converted by DynamoDBTyped
+     * otherwise, is declared here too.
+     *
+     * @param addressConverter
+     * @return schema, the other types convert as in ConversionSchemas.V2
+     */
+    public static ConversionSchema conversionSchema(AddressConverter addressConverter) {
+        return ConversionSchemas.v2Builder("V2 with " + addressConverter.getEncoding() + " addresses")
+                .addFirstType(Address.class, value -> addressConverter.convert((Address) value), unmarshaller(addressConverter::unconvert))
+                .addFirstType(UserStatus.class, value -> new AttributeValue(((UserStatus) value).name()), unmarshaller(value -> UserStatus.valueOf(value.getS())))
+                .build();
+    }
+
+    private static ArgumentUnmarshaller unmarshaller(Function<AttributeValue, Object> unconvert) {
+        return new ArgumentUnmarshaller() {
+            @Override
+            public void typeCheck(AttributeValue value, Method setter) {
+            }
+
+            @Override
+            public Object unmarshall(AttributeValue value) {
+                return unconvert.apply(value);
+            }
+        };
+    }
+
+    private String tableNamePrefix() {
         String prefix = "";
         if (activeProfile.equals("prod")) {
             prefix = "prod";
         }
-        return new DynamoDBMapperConfig.Builder()
-                .withTableNameOverride(DynamoDBMapperConfig.TableNameOverride.withTableNamePrefix(prefix))
-                .build();
+        return prefix;
+    }
+
+    /**
+     * Thread pool to fan out queries across user shards
+     *
+     * @return executor
+     */
+    @Bean(destroyMethod = "shutdown")
+    @ConditionalOnThreading(Threading.PLATFORM)
+    public Executor dynamoDBQueryExecutor() {
+        return Executors.newFixedThreadPool(queryThreads, new ThreadFactoryBuilder()
+                .setNameFormat("dynamodb-query-%d")
+                .setDaemon(true)
+                .build());
+    }
+
+    /**
+     * One virtual thread per query when spring.threads.virtual.enabled=true on Java 21,
+     * the number of in-flight requests is then bounded by amazon.dynamodb.http.max-connections
+     *
+     * @return executor
+     */
+    @Bean(name = "dynamoDBQueryExecutor", destroyMethod = "")
+    @ConditionalOnThreading(Threading.VIRTUAL)
+    public Executor dynamoDBVirtualQueryExecutor() {
+        return new VirtualThreadTaskExecutor("dynamodb-query-");
     }
 }
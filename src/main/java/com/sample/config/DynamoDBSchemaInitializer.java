@@ -0,0 +1,254 @@
+package com.sample.config;
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
+import com.amazonaws.services.dynamodbv2.model.*;
+import com.amazonaws.services.dynamodbv2.util.TableUtils;
+import com.sample.model.User;
+import com.sample.model.UserReservation;
+import com.sample.model.UserSearchPosting;
+import com.sample.model.UserTypeahead;
+import com.sample.repository.UserProjection;
+import com.sample.repository.UserRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Create the tables and global secondary indexes declared by the models when they do not exist.
+ * Startup fails when an existing index is keyed differently or projects less than declared.
+ * A new status-index or createdAt-index of an existing table is backfilled with the users written before it,
+ * users written in another encoding are rewritten when amazon.dynamodb.user.migrate-encoding=true,
+ * and the search postings of every user are put again when amazon.dynamodb.search.reindex=true.
+ */
+@Component
+@Slf4j
+@RequiredArgsConstructor
+@ConditionalOnProperty(name = "amazon.dynamodb.schema.create", havingValue = "true")
+@Order(Ordered.HIGHEST_PRECEDENCE)
+public class DynamoDBSchemaInitializer implements ApplicationRunner {
+
+    private static final List<Class<?>> MODELS = List.of(User.class, UserReservation.class, UserSearchPosting.class, UserTypeahead.class);
+
+    // indexes only read to check a value is registered
+    private static final Set<String> KEYS_ONLY = Set.of("phone-index", "email-index");
+
+    // a new index is backfilled before it is active, which takes from seconds to hours on a large table
+    private static final long INDEX_TIMEOUT_MILLIS = 6 * 60 * 60 * 1000L;
+    private static final long INDEX_POLL_MILLIS = 5_000L;
+
+    private final AmazonDynamoDB amazonDynamoDB;
+    private final DynamoDBMapper dynamoDBMapper;
+    private final UserRepository userRepository;
+    private final Executor dynamoDBQueryExecutor;
+
+    @Value("${amazon.dynamodb.user.migrate-encoding:false}")
+    private boolean migrateEncoding;
+
+    @Value("${amazon.dynamodb.search.reindex:false}")
+    private boolean reindexSearch;
+
+    @Override
+    public void run(ApplicationArguments args) throws InterruptedException {
+        for (Class<?> model : MODELS) {
+            CreateTableRequest request = createTableRequest(model);
+            if (TableUtils.createTableIfNotExists(amazonDynamoDB, request)) {
+                log.info("Table is created, table={}", request.getTableName());
+                waitUntilActive(request.getTableName());
+            } else {
+                Set<String> created = createIndexes(request);
+                if (created.contains(User.STATUS_INDEX)) {
+                    dynamoDBQueryExecutor.execute(userRepository::backfillStatusIndex);
+                }
+                if (created.contains(User.CREATED_AT_INDEX)) {
+                    dynamoDBQueryExecutor.execute(userRepository::backfillCreatedAtIndex);
+                }
+            }
+        }
+        if (migrateEncoding) {
+            dynamoDBQueryExecutor.execute(userRepository::migrateEncoding);
+        }
+        if (reindexSearch) {
+            dynamoDBQueryExecutor.execute(userRepository::reindexSearch);
+        }
+    }
+
+    /**
+     * Create table request of model, on demand capacity and indexes projecting what their readers need.
+     * An index without hash key cannot be created, it is skipped.
+     *
+     * @param model
+     * @return request
+     */
+    private CreateTableRequest createTableRequest(Class<?> model) {
+        CreateTableRequest request = dynamoDBMapper.generateCreateTableRequest(model)
+                .withBillingMode(BillingMode.PAY_PER_REQUEST);
+        if (request.getGlobalSecondaryIndexes() != null) {
+            List<GlobalSecondaryIndex> indexes = request.getGlobalSecondaryIndexes().stream()
+                    .filter(index -> {
+                        boolean valid = index.getKeySchema().stream().anyMatch(key -> KeyType.HASH.toString().equals(key.getKeyType()));
+                        if (!valid) {
+                            log.warn("Index has no hash key, skip it, table={}, index={}", request.getTableName(), index.getIndexName());
+                        }
+                        return valid;
+                    })
+                    .map(index -> index.withProjection(projectionOf(index)))
+                    .toList();
+            request.setGlobalSecondaryIndexes(indexes.isEmpty() ? null : indexes);
+
+            // an attribute must be defined only when it is a key of the table or of an index
+            Set<String> keys = new HashSet<>();
+            request.getKeySchema().forEach(key -> keys.add(key.getAttributeName()));
+            indexes.forEach(index -> index.getKeySchema().forEach(key -> keys.add(key.getAttributeName())));
+            request.setAttributeDefinitions(request.getAttributeDefinitions().stream()
+                    .filter(attribute -> keys.contains(attribute.getAttributeName()))
+                    .toList());
+        }
+        return request;
+    }
+
+    /**
+     * Projection of index: keys only for the uniqueness checks, otherwise the attributes listings return and filter on
+     *
+     * @param index
+     * @return projection
+     */
+    private static Projection projectionOf(GlobalSecondaryIndex index) {
+        if (KEYS_ONLY.contains(index.getIndexName())) {
+            return new Projection().withProjectionType(ProjectionType.KEYS_ONLY);
+        }
+        // keys of the table and of the index are always projected
+        Set<String> attributes = new LinkedHashSet<>(UserProjection.RESPONSE);
+        attributes.addAll(UserProjection.FILTERS);
+        attributes.removeAll(List.of("hashKey", "rangeKey"));
+        index.getKeySchema().forEach(key -> attributes.remove(key.getAttributeName()));
+        return new Projection().withProjectionType(ProjectionType.INCLUDE).withNonKeyAttributes(attributes);
+    }
+
+    /**
+     * Create the indexes of an existing table which are missing, one by one since DynamoDB creates one index per UpdateTable
+     *
+     * @param request create table request of model
+     * @return names of created indexes
+     */
+    private Set<String> createIndexes(CreateTableRequest request) throws InterruptedException {
+        if (request.getGlobalSecondaryIndexes() == null) {
+            return Set.of();
+        }
+
+        TableDescription table = amazonDynamoDB.describeTable(request.getTableName()).getTable();
+        Map<String, GlobalSecondaryIndexDescription> existing = table.getGlobalSecondaryIndexes() == null ? Map.of() : table.getGlobalSecondaryIndexes().stream()
+                .collect(Collectors.toMap(GlobalSecondaryIndexDescription::getIndexName, Function.identity()));
+        boolean provisioned = table.getBillingModeSummary() == null
+                || BillingMode.PROVISIONED.toString().equals(table.getBillingModeSummary().getBillingMode());
+
+        Set<String> created = new HashSet<>();
+        for (GlobalSecondaryIndex index : request.getGlobalSecondaryIndexes()) {
+            if (existing.containsKey(index.getIndexName())) {
+                // the keys of an index cannot be changed, a re-keyed index is declared under a new name
+                List<KeySchemaElement> keySchema = existing.get(index.getIndexName()).getKeySchema();
+                if (!keysOf(index.getKeySchema()).equals(keysOf(keySchema))) {
+                    throw new IllegalStateException("Index " + index.getIndexName() + " of table " + request.getTableName()
+                            + " is keyed on " + keysOf(keySchema) + " instead of " + keysOf(index.getKeySchema()));
+                }
+                // the projection of an index cannot be changed either, a listing would fetch the attributes missing from it
+                Projection projection = existing.get(index.getIndexName()).getProjection();
+                if (!covers(projection, index.getProjection())) {
+                    throw new IllegalStateException("Index " + index.getIndexName() + " of table " + request.getTableName()
+                            + " projects " + attributesOf(projection) + " instead of " + attributesOf(index.getProjection()));
+                }
+                if (!attributesOf(index.getProjection()).equals(attributesOf(projection))) {
+                    log.warn("Index projects more than declared, table={}, index={}, projection={}, declared={}",
+                            request.getTableName(), index.getIndexName(), attributesOf(projection), attributesOf(index.getProjection()));
+                }
+                continue;
+            }
+            CreateGlobalSecondaryIndexAction action = new CreateGlobalSecondaryIndexAction()
+                    .withIndexName(index.getIndexName())
+                    .withKeySchema(index.getKeySchema())
+                    .withProjection(index.getProjection());
+            if (provisioned) {
+                ProvisionedThroughputDescription throughput = table.getProvisionedThroughput();
+                action.withProvisionedThroughput(new ProvisionedThroughput(throughput.getReadCapacityUnits(), throughput.getWriteCapacityUnits()));
+            }
+            log.info("Creating index, table={}, index={}", request.getTableName(), index.getIndexName());
+            amazonDynamoDB.updateTable(new UpdateTableRequest()
+                    .withTableName(request.getTableName())
+                    .withAttributeDefinitions(request.getAttributeDefinitions())
+                    .withGlobalSecondaryIndexUpdates(new GlobalSecondaryIndexUpdate().withCreate(action)));
+            waitUntilActive(request.getTableName());
+            created.add(index.getIndexName());
+        }
+        return created;
+    }
+
+    private static Map<String, String> keysOf(List<KeySchemaElement> keySchema) {
+        return keySchema.stream().collect(Collectors.toMap(KeySchemaElement::getKeyType, KeySchemaElement::getAttributeName));
+    }
+
+    /**
+     * Whether a projection has the attributes of another one: ALL has every attribute, INCLUDE its own and the keys,
+     * KEYS_ONLY the keys only
+     *
+     * @param projection existing projection
+     * @param required   declared projection
+     * @return true when nothing of required is missing from projection
+     */
+    private static boolean covers(Projection projection, Projection required) {
+        ProjectionType type = ProjectionType.fromValue(projection.getProjectionType());
+        ProjectionType requiredType = ProjectionType.fromValue(required.getProjectionType());
+        if (type == ProjectionType.ALL || requiredType == ProjectionType.KEYS_ONLY) {
+            return true;
+        }
+        if (type == ProjectionType.KEYS_ONLY || requiredType == ProjectionType.ALL) {
+            return false;
+        }
+        List<String> attributes = projection.getNonKeyAttributes() == null ? List.of() : projection.getNonKeyAttributes();
+        return required.getNonKeyAttributes() == null || attributes.containsAll(required.getNonKeyAttributes());
+    }
+
+    private static Set<String> attributesOf(Projection projection) {
+        Set<String> attributes = new TreeSet<>();
+        attributes.add(projection.getProjectionType());
+        if (projection.getNonKeyAttributes() != null) {
+            attributes.addAll(projection.getNonKeyAttributes());
+        }
+        return attributes;
+    }
+
+    /**
+     * Wait until the table and all of its indexes are active. TableUtils only waits on the table status,
+     * which is back to ACTIVE while a new index is still CREATING and cannot be queried nor followed by another index.
+     *
+     * @param tableName
+     */
+    private void waitUntilActive(String tableName) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + INDEX_TIMEOUT_MILLIS;
+        while (true) {
+            TableDescription table = amazonDynamoDB.describeTable(tableName).getTable();
+            List<String> pending = table.getGlobalSecondaryIndexes() == null ? List.of() : table.getGlobalSecondaryIndexes().stream()
+                    .filter(index -> !IndexStatus.ACTIVE.toString().equals(index.getIndexStatus()))
+                    .map(GlobalSecondaryIndexDescription::getIndexName)
+                    .toList();
+            if (TableStatus.ACTIVE.toString().equals(table.getTableStatus()) && pending.isEmpty()) {
+                return;
+            }
+            if (System.currentTimeMillis() > deadline) {
+                throw new IllegalStateException("Table " + tableName + " is not active, pending indexes=" + pending);
+            }
+            log.debug("Waiting for table, table={}, status={}, pending={}", tableName, table.getTableStatus(), pending);
+            Thread.sleep(INDEX_POLL_MILLIS);
+        }
+    }
+}
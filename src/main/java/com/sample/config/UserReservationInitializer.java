@@ -0,0 +1,48 @@
+package com.sample.config;
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapperConfig;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.GetItemRequest;
+import com.amazonaws.services.dynamodbv2.model.PutItemRequest;
+import com.sample.model.UserReservation;
+import com.sample.repository.UserRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.Map;
+
+/**
+ * Reserve the phones and emails of users created before reservations, once for the table.
+ * Uniqueness is only checked by the reservations, so the instance is not ready to serve until they are backfilled;
+ * a setting in the user_unique table records it, the later starts skip the scan.
+ */
+@Component
+@Slf4j
+@RequiredArgsConstructor
+public class UserReservationInitializer implements ApplicationRunner {
+
+    private static final String BACKFILLED_KEY = UserReservation.SETTING + "reservations";
+
+    private final AmazonDynamoDB amazonDynamoDB;
+    private final DynamoDBMapperConfig dynamoDBMapperConfig;
+    private final UserRepository userRepository;
+
+    @Override
+    public void run(ApplicationArguments args) {
+        String tableName = DynamoDBMapperConfig.DefaultTableNameResolver.INSTANCE.getTableName(UserReservation.class, dynamoDBMapperConfig);
+        Map<String, AttributeValue> key = Map.of("uniqueKey", new AttributeValue(BACKFILLED_KEY));
+        if (amazonDynamoDB.getItem(new GetItemRequest().withTableName(tableName).withKey(key).withConsistentRead(true)).getItem() != null) {
+            return;
+        }
+
+        userRepository.backfillReservations();
+        amazonDynamoDB.putItem(new PutItemRequest()
+                .withTableName(tableName)
+                .withItem(Map.of("uniqueKey", key.get("uniqueKey"), "backfilledAt", new AttributeValue(Instant.now().toString()))));
+    }
+}
@@ -0,0 +1,63 @@
+package com.sample.config;
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapperConfig;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
+import com.amazonaws.services.dynamodbv2.model.GetItemRequest;
+import com.amazonaws.services.dynamodbv2.model.PutItemRequest;
+import com.sample.model.UserReservation;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+
+/**
+ * Refuse to start when amazon.dynamodb.user.shards differs from the shard count users are written with.
+ * The shard of a user is derived from the count, so a changed count can no longer find existing users.
+ * The first instance stores its count in the user_unique table, the later ones compare theirs with it.
+ */
+@Component
+@Slf4j
+@RequiredArgsConstructor
+public class UserShardsGuard implements ApplicationRunner {
+
+    private static final String SHARDS_KEY = UserReservation.SETTING + "shards";
+    private static final String SHARDS = "shards";
+
+    private final AmazonDynamoDB amazonDynamoDB;
+    private final DynamoDBMapperConfig dynamoDBMapperConfig;
+
+    @Value("${amazon.dynamodb.user.shards:1}")
+    private int shards;
+
+    @Override
+    public void run(ApplicationArguments args) {
+        String tableName = DynamoDBMapperConfig.DefaultTableNameResolver.INSTANCE.getTableName(UserReservation.class, dynamoDBMapperConfig);
+        Map<String, AttributeValue> key = Map.of("uniqueKey", new AttributeValue(SHARDS_KEY));
+        try {
+            amazonDynamoDB.putItem(new PutItemRequest()
+                    .withTableName(tableName)
+                    .withItem(Map.of("uniqueKey", key.get("uniqueKey"), SHARDS, new AttributeValue().withN(String.valueOf(shards))))
+                    .withConditionExpression("attribute_not_exists(uniqueKey)"));
+            log.info("User shard count is stored, shards={}", shards);
+            return;
+        } catch (ConditionalCheckFailedException e) {
+            // stored by an earlier start
+        }
+        Map<String, AttributeValue> item = amazonDynamoDB.getItem(new GetItemRequest()
+                .withTableName(tableName)
+                .withKey(key)
+                .withConsistentRead(true)).getItem();
+        int stored = Integer.parseInt(item.get(SHARDS).getN());
+        if (stored != shards) {
+            throw new IllegalStateException(String.format(
+                    "amazon.dynamodb.user.shards is %d but users are written with %d shards, it can not change after the first write",
+                    shards, stored));
+        }
+    }
+}
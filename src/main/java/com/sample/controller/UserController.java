@@ -1,20 +1,34 @@
 package com.sample.controller;
 
 
+import com.sample.dto.request.UserBatchGetRequest;
 import com.sample.dto.request.UserCreationRequest;
 import com.sample.dto.request.UserUpdateRequest;
 import com.sample.dto.response.LoadingPageResponse;
+import com.sample.dto.response.UserBatchItemResponse;
+import com.sample.dto.response.UserImportResponse;
 import com.sample.dto.response.UserResponse;
+import com.sample.dto.response.UserSuggestionResponse;
+import com.sample.service.UserImportService;
 import com.sample.service.UserService;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import jakarta.validation.Valid;
+import jakarta.validation.constraints.Pattern;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.InputStream;
+import java.util.List;
+
+import static com.sample.service.impl.UserImportServiceImp.CSV;
+import static com.sample.service.impl.UserImportServiceImp.NDJSON;
 import static com.sample.util.Constant.apiKey;
+import static com.sample.util.Constant.hashKeyRegex;
+import static org.springframework.http.HttpHeaders.CONTENT_TYPE;
 import static org.springframework.http.HttpStatus.*;
 import static org.springframework.http.MediaType.APPLICATION_JSON_VALUE;
 
@@ -27,6 +41,7 @@ import static org.springframework.http.MediaType.APPLICATION_JSON_VALUE;
 public class UserController {
 
     private final UserService userService;
+    private final UserImportService userImportService;
 
     @Operation(summary = "Add new user", description = "Return user ID")
     @PostMapping(path = "/add", headers = apiKey, produces = APPLICATION_JSON_VALUE, consumes = APPLICATION_JSON_VALUE)
@@ -35,6 +50,13 @@ public class UserController {
         return userService.saveUser(request);
     }
 
+    @Operation(summary = "Import users", description = "Stream users as NDJSON or CSV with header, return the report of import")
+    @PostMapping(path = "/import", headers = apiKey, produces = APPLICATION_JSON_VALUE, consumes = {NDJSON, CSV})
+    @ResponseStatus(OK)
+    public UserImportResponse importUsers(InputStream body, @RequestHeader(CONTENT_TYPE) String contentType) {
+        return userImportService.importUsers(body, contentType);
+    }
+
     @Operation(summary = "Update user", description = "Return message")
     @PutMapping(path = "/user/{hashKey}", headers = apiKey, produces = APPLICATION_JSON_VALUE, consumes = APPLICATION_JSON_VALUE)
     @ResponseStatus(ACCEPTED)
@@ -45,28 +67,35 @@ public class UserController {
     @Operation(summary = "Deactivate user", description = "Return message")
     @PatchMapping(path = "/user/{hashKey}", headers = apiKey, produces = APPLICATION_JSON_VALUE)
     @ResponseStatus(ACCEPTED)
-    public String deactivateUser(@PathVariable String hashKey, @RequestParam String rangeKey) {
+    public String deactivateUser(@PathVariable @Pattern(regexp = hashKeyRegex, message = "hashKey must not contain #") String hashKey, @RequestParam String rangeKey) {
         return userService.deactivateUser(hashKey, rangeKey);
     }
 
     @Operation(summary = "Delete user", description = "Return message")
     @DeleteMapping(path = "/user/{hashKey}", headers = apiKey, produces = APPLICATION_JSON_VALUE)
     @ResponseStatus(NO_CONTENT)
-    public String deleteUser(@PathVariable String hashKey, @RequestParam String rangeKey) {
+    public String deleteUser(@PathVariable @Pattern(regexp = hashKeyRegex, message = "hashKey must not contain #") String hashKey, @RequestParam String rangeKey) {
         return userService.deleteUser(hashKey, rangeKey);
     }
 
     @Operation(summary = "Get user detail", description = "Return user detail")
     @GetMapping(path = "/user/{hashKey}", headers = apiKey, produces = APPLICATION_JSON_VALUE)
     @ResponseStatus(OK)
-    public UserResponse getUserDetail(@PathVariable String hashKey, @RequestParam String rangeKey) {
+    public UserResponse getUserDetail(@PathVariable @Pattern(regexp = hashKeyRegex, message = "hashKey must not contain #") String hashKey, @RequestParam String rangeKey) {
         return userService.getUser(hashKey, rangeKey);
     }
 
-    @Operation(summary = "Get all of users", description = "Return user lists")
+    @Operation(summary = "Get users by ids", description = "Return users in order of ids, a missing user is not found")
+    @PostMapping(path = "/users/batch-get", headers = apiKey, produces = APPLICATION_JSON_VALUE, consumes = APPLICATION_JSON_VALUE)
+    @ResponseStatus(OK)
+    public List<UserBatchItemResponse> getUsers(@Valid @RequestBody UserBatchGetRequest request) {
+        return userService.getUsers(request.getHashKey(), request.getRangeKeys());
+    }
+
+    @Operation(summary = "Get all of users", description = "Return user lists, orderBy is firstName, lastName, email or createdAt optionally followed by :asc or :desc, ex: lastName:desc")
     @GetMapping(path = "/users", headers = apiKey, produces = APPLICATION_JSON_VALUE)
     @ResponseStatus(OK)
-    public LoadingPageResponse getUserList(@RequestParam String hashKey,
+    public LoadingPageResponse getUserList(@RequestParam @Pattern(regexp = hashKeyRegex, message = "hashKey must not contain #") String hashKey,
                                        @RequestParam(required = false) String search,
                                        @RequestParam(required = false) String firstName,
                                        @RequestParam(required = false) String lastName,
@@ -79,4 +108,30 @@ public class UserController {
                                        @RequestParam(defaultValue = "25") int pageSize) {
         return userService.getAllUsers(hashKey, search, firstName, lastName, phone, email, address, status, orderBy, nextKey, pageSize);
     }
+
+    @Operation(summary = "Stream users", description = "Same conditions as user lists, return up to limit users as NDJSON while they are read, the last line is {\"nextKey\": ...}")
+    @GetMapping(path = "/users/stream", headers = apiKey, produces = NDJSON)
+    @ResponseStatus(OK)
+    public StreamingResponseBody streamUserList(@RequestParam @Pattern(regexp = hashKeyRegex, message = "hashKey must not contain #") String hashKey,
+                                                @RequestParam(required = false) String search,
+                                                @RequestParam(required = false) String firstName,
+                                                @RequestParam(required = false) String lastName,
+                                                @RequestParam(required = false) String phone,
+                                                @RequestParam(required = false) String email,
+                                                @RequestParam(required = false) String address,
+                                                @RequestParam(required = false) String status,
+                                                @RequestParam(required = false) String orderBy,
+                                                @RequestParam(required = false) String nextKey,
+                                                @RequestParam(defaultValue = "1000") int limit) {
+        return out -> userService.streamUsers(hashKey, search, firstName, lastName, phone, email, address, status, orderBy, nextKey, limit, out);
+    }
+
+    @Operation(summary = "Suggest users", description = "Return top users whose name, email or phone starts with prefix")
+    @GetMapping(path = "/suggestions", headers = apiKey, produces = APPLICATION_JSON_VALUE)
+    @ResponseStatus(OK)
+    public List<UserSuggestionResponse> suggestUsers(@RequestParam @Pattern(regexp = hashKeyRegex, message = "hashKey must not contain #") String hashKey,
+                                                     @RequestParam String prefix,
+                                                     @RequestParam(defaultValue = "10") int limit) {
+        return userService.suggestUsers(hashKey, prefix, limit);
+    }
 }
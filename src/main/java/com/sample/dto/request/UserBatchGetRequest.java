@@ -0,0 +1,25 @@
+package com.sample.dto.request;
+
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.NotEmpty;
+import jakarta.validation.constraints.Pattern;
+import jakarta.validation.constraints.Size;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.io.Serializable;
+import java.util.List;
+
+import static com.sample.util.Constant.hashKeyRegex;
+
+@Getter
+@Setter
+public class UserBatchGetRequest implements Serializable {
+    @NotBlank(message = "hashKey must be not blank")
+    @Pattern(regexp = hashKeyRegex, message = "hashKey must not contain #")
+    private String hashKey;
+
+    @NotEmpty(message = "rangeKeys must be not empty")
+    @Size(max = 500, message = "rangeKeys must have at most 500 items")
+    private List<@NotBlank(message = "rangeKey must be not blank") String> rangeKeys;
+}
@@ -3,15 +3,19 @@ package com.sample.dto.request;
 import com.sample.model.Address;
 import jakarta.validation.constraints.NotBlank;
 import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Pattern;
 import lombok.Getter;
 import lombok.Setter;
 
 import java.io.Serializable;
 
+import static com.sample.util.Constant.hashKeyRegex;
+
 @Getter
 @Setter
 public class UserUpdateRequest implements Serializable {
     @NotBlank(message = "hashKey must be not blank")
+    @Pattern(regexp = hashKeyRegex, message = "hashKey must not contain #")
     private String hashKey;
 
     @NotBlank(message = "hashKey must be not blank")
@@ -26,4 +30,9 @@ public class UserUpdateRequest implements Serializable {
     private String email;
 
     private Address address;
+
+    /**
+     * Version the client has read, the update is rejected when the user has changed since
+     */
+    private Long version;
 }
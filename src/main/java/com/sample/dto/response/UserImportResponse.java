@@ -0,0 +1,26 @@
+package com.sample.dto.response;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.io.Serializable;
+import java.util.List;
+
+@Getter
+@Setter
+@Builder
+public class UserImportResponse implements Serializable {
+    private int total;
+    private int imported;
+    private int failed;
+    private List<Failure> failures;
+
+    @Getter
+    @AllArgsConstructor
+    public static class Failure implements Serializable {
+        private int line;
+        private String message;
+    }
+}
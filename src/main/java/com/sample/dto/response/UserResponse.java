@@ -18,4 +18,5 @@ public class UserResponse implements Serializable {
     private String phone;
     private String email;
     private Address address;
+    private Long version;
 }
@@ -0,0 +1,16 @@
+package com.sample.dto.response;
+
+import lombok.Builder;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.io.Serializable;
+
+@Getter
+@Setter
+@Builder
+public class UserSuggestionResponse implements Serializable {
+    private String id;
+    private String name;
+    private String email;
+}
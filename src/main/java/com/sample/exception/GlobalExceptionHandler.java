@@ -112,6 +112,42 @@ public class GlobalExceptionHandler {
         return error;
     }
 
+    /**
+     * Handle exception when the object was changed by another request
+     *
+     * @param e
+     * @param request
+     * @return error
+     */
+    @ExceptionHandler(ConflictException.class)
+    @ResponseStatus(CONFLICT)
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "409", description = "Conflict",
+                    content = {@Content(mediaType = APPLICATION_JSON_VALUE,
+                            examples = @ExampleObject(
+                                    name = "409 Response",
+                                    summary = "Handle version conflict",
+                                    value = """
+                                            {
+                                              "timestamp": "2023-10-19T06:07:35.321+00:00",
+                                              "status": 409,
+                                              "path": "/user/user/uuid",
+                                              "error": "Conflict",
+                                              "messages": "User is changed, current version=3"
+                                            }"""
+                            ))})
+    })
+    public Error handleConflictException(ConflictException e, WebRequest request) {
+        Error error = new Error();
+        error.setTimestamp(new Date());
+        error.setPath(request.getDescription(false).replace("uri=", ""));
+        error.setStatus(CONFLICT.value());
+        error.setError(CONFLICT.getReasonPhrase());
+        error.setMessages(e.getMessage());
+
+        return error;
+    }
+
     /**
      * Handle exception when internal server error
      *
@@ -0,0 +1,272 @@
+package com.sample.model;
+
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBTypeConverter;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Store address as a map of its six attributes (MAP) or packed into a binary attribute (BINARY, DEFLATE).
+ * Both formats are read whatever the encoding, so the users written before a change of encoding stay readable,
+ * they are rewritten in the current encoding when their address is written again.
+ * <p>
+ * Binary format: format byte, text, flags byte, then street, district, city, country and postalCode, deflated when it is smaller.
+ * The text is a varint of its UTF-8 length plus one (0 for null) followed by its bytes. It comes first and is never deflated,
+ * so a listing filters on it with begins_with(address, prefixOf(text)). A part is 0 for null, 1 followed by the varints of
+ * its offset and length when the text contains it (ex: the street), otherwise a varint of its UTF-8 length plus two and its bytes.
+ */
+public class AddressConverter implements DynamoDBTypeConverter<AttributeValue, Address> {
+
+    public enum Encoding {
+        MAP, BINARY, DEFLATE
+    }
+
+    private static final byte FORMAT = 1;
+    private static final byte DEFLATED = 1;
+
+    private final Encoding encoding;
+
+    /**
+     * @param encoding encoding of the addresses written, from amazon.dynamodb.user.address-encoding
+     */
+    public AddressConverter(Encoding encoding) {
+        this.encoding = encoding;
+    }
+
+    public Encoding getEncoding() {
+        return encoding;
+    }
+
+    @Override
+    public AttributeValue convert(Address address) {
+        if (address == null) {
+            return null;
+        }
+        if (encoding == Encoding.MAP) {
+            Map<String, AttributeValue> map = new LinkedHashMap<>();
+            fieldsOf(address).forEach((name, value) -> map.put(name, new AttributeValue(value)));
+            return new AttributeValue().withM(map);
+        }
+        return new AttributeValue().withB(ByteBuffer.wrap(encode(address, encoding == Encoding.DEFLATE)));
+    }
+
+    @Override
+    public Address unconvert(AttributeValue value) {
+        if (value.getM() != null) {
+            Map<String, String> fields = new HashMap<>();
+            value.getM().forEach((name, field) -> fields.put(name, field.getS()));
+            return of(fields);
+        }
+        if (value.getB() != null) {
+            return decode(value.getB());
+        }
+        return null;
+    }
+
+    /**
+     * Attributes of the map format, null ones are left out like DynamoDBMapper does for a document
+     *
+     * @param address
+     * @return name -> value
+     */
+    public static Map<String, String> fieldsOf(Address address) {
+        Map<String, String> fields = new LinkedHashMap<>();
+        putIfNotNull(fields, "street", address.getStreet());
+        putIfNotNull(fields, "district", address.getDistrict());
+        putIfNotNull(fields, "city", address.getCity());
+        putIfNotNull(fields, "country", address.getCountry());
+        putIfNotNull(fields, "postalCode", address.getPostalCode());
+        putIfNotNull(fields, "text", address.getText());
+        return fields;
+    }
+
+    /**
+     * Address of the attributes of the map format
+     *
+     * @param fields
+     * @return address
+     */
+    public static Address of(Map<String, String> fields) {
+        Address address = new Address();
+        address.setStreet(fields.get("street"));
+        address.setDistrict(fields.get("district"));
+        address.setCity(fields.get("city"));
+        address.setCountry(fields.get("country"));
+        address.setPostalCode(fields.get("postalCode"));
+        address.setText(fields.get("text"));
+        return address;
+    }
+
+    /**
+     * Pack address into the binary format
+     *
+     * @param address
+     * @param deflate deflate street, district, city, country and postalCode when it makes them smaller
+     * @return bytes
+     */
+    public static byte[] encode(Address address, boolean deflate) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(128);
+        out.write(FORMAT);
+        writeString(out, address.getText());
+
+        ByteArrayOutputStream parts = new ByteArrayOutputStream(128);
+        writePart(parts, address.getText(), address.getStreet());
+        writePart(parts, address.getText(), address.getDistrict());
+        writePart(parts, address.getText(), address.getCity());
+        writePart(parts, address.getText(), address.getCountry());
+        writePart(parts, address.getText(), address.getPostalCode());
+        byte[] plain = parts.toByteArray();
+
+        byte[] deflated = deflate ? deflate(plain) : null;
+        if (deflated != null && deflated.length < plain.length) {
+            out.write(DEFLATED);
+            writeVarint(out, plain.length);
+            out.writeBytes(deflated);
+        } else {
+            out.write(0);
+            out.writeBytes(plain);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Unpack address from the binary format
+     *
+     * @param bytes read from its position, which is not moved
+     * @return address
+     */
+    public static Address decode(ByteBuffer bytes) {
+        ByteBuffer in = bytes.duplicate();
+        if (in.get() != FORMAT) {
+            throw new IllegalArgumentException("Unknown format of address");
+        }
+        Address address = new Address();
+        address.setText(readString(in));
+
+        if (in.get() == DEFLATED) {
+            byte[] plain = new byte[readVarint(in)];
+            Inflater inflater = new Inflater(true);
+            try {
+                inflater.setInput(in);
+                inflater.inflate(plain);
+            } catch (DataFormatException e) {
+                throw new IllegalArgumentException("Corrupted address", e);
+            } finally {
+                inflater.end();
+            }
+            in = ByteBuffer.wrap(plain);
+        }
+        address.setStreet(readPart(in, address.getText()));
+        address.setDistrict(readPart(in, address.getText()));
+        address.setCity(readPart(in, address.getText()));
+        address.setCountry(readPart(in, address.getText()));
+        address.setPostalCode(readPart(in, address.getText()));
+        return address;
+    }
+
+    /**
+     * Leading bytes of every binary address of a text, the text is length-prefixed so no other text shares them
+     *
+     * @param text
+     * @return bytes
+     */
+    public static byte[] prefixOf(String text) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(FORMAT);
+        writeString(out, text);
+        return out.toByteArray();
+    }
+
+    private static byte[] deflate(byte[] plain) {
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION, true);
+        try {
+            deflater.setInput(plain);
+            deflater.finish();
+            byte[] buffer = new byte[plain.length + 16];
+            int length = deflater.deflate(buffer);
+            return deflater.finished() ? Arrays.copyOf(buffer, length) : null;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static void writeString(ByteArrayOutputStream out, String value) {
+        if (value == null) {
+            out.write(0);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarint(out, bytes.length + 1);
+        out.writeBytes(bytes);
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = readVarint(in);
+        if (length == 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length - 1];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writePart(ByteArrayOutputStream out, String text, String part) {
+        int offset = text == null || part == null || part.isEmpty() ? -1 : text.indexOf(part);
+        if (part == null) {
+            out.write(0);
+        } else if (offset >= 0) {
+            out.write(1);
+            writeVarint(out, offset);
+            writeVarint(out, part.length());
+        } else {
+            byte[] bytes = part.getBytes(StandardCharsets.UTF_8);
+            writeVarint(out, bytes.length + 2);
+            out.writeBytes(bytes);
+        }
+    }
+
+    private static String readPart(ByteBuffer in, String text) {
+        int tag = readVarint(in);
+        if (tag == 0) {
+            return null;
+        }
+        if (tag == 1) {
+            int offset = readVarint(in);
+            return text.substring(offset, offset + readVarint(in));
+        }
+        byte[] bytes = new byte[tag - 2];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static int readVarint(ByteBuffer in) {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = in.get();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+    }
+
+    private static void putIfNotNull(Map<String, String> fields, String name, String value) {
+        if (value != null) {
+            fields.put(name, value);
+        }
+    }
+}
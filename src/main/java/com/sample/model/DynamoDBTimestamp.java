@@ -0,0 +1,24 @@
+package com.sample.model;
+
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapperFieldModel;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBTypeConverted;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBTyped;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Date stored as a string of pattern, same strings as @DynamoDBTypeConvertedTimestamp but formatted by java.time, see TimestampConverter
+ */
+@DynamoDBTypeConverted(converter = TimestampConverter.class)
+@DynamoDBTyped(DynamoDBMapperFieldModel.DynamoDBAttributeType.S)
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.FIELD, ElementType.METHOD, ElementType.ANNOTATION_TYPE})
+public @interface DynamoDBTimestamp {
+
+    String pattern();
+
+    String timeZone() default "UTC";
+}
@@ -0,0 +1,170 @@
+package com.sample.model;
+
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBTypeConverter;
+
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoField;
+import java.time.zone.ZoneRules;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.TimeZone;
+
+/**
+ * Date <-> string of a pattern, written on every put of a user. It replaces the Joda-Time formatting of
+ * @DynamoDBTypeConvertedTimestamp, which builds a DateTime and a parse bucket for each value, and keeps its strings:
+ * the time zone is resolved by java.util.TimeZone (an unknown id is GMT) and a 12-hour clock without AM/PM (createdAt) is read as AM.
+ * <p>
+ * The pattern is compiled once into numeric fields and literals, so a value is formatted into one StringBuilder.
+ * Letters: yyyy, M(M), d(d), H(H), h(h), m(m), s(s), SSS; a field followed by another field has a fixed width (ex: yyyyMMdd)
+ * and a trailing SSS is read as a fraction of up to three digits. TimestampConverterTest compares both directions with Joda-Time.
+ */
+public class TimestampConverter implements DynamoDBTypeConverter<String, Date> {
+
+    private static final long MILLIS_PER_DAY = 86_400_000L;
+
+    private final String pattern;
+    private final List<Element> elements;
+    private final ZoneRules rules;
+    private final int length;
+
+    public TimestampConverter(Class<Date> targetType, DynamoDBTimestamp annotation) {
+        this(annotation.pattern(), annotation.timeZone());
+    }
+
+    public TimestampConverter(String pattern, String timeZone) {
+        this.pattern = pattern;
+        this.elements = compile(pattern);
+        this.rules = TimeZone.getTimeZone(timeZone).toZoneId().getRules();
+        this.length = elements.stream().mapToInt(element -> element.literal() != null ? element.literal().length() : element.width() + 2).sum();
+    }
+
+    @Override
+    public String convert(Date date) {
+        long millis = date.getTime();
+        long local = millis + offsetSeconds(millis) * 1000L;
+        int millisOfDay = (int) Math.floorMod(local, MILLIS_PER_DAY);
+        LocalDate day = LocalDate.ofEpochDay(Math.floorDiv(local, MILLIS_PER_DAY));
+
+        StringBuilder out = new StringBuilder(length);
+        for (Element element : elements) {
+            if (element.literal() != null) {
+                out.append(element.literal());
+                continue;
+            }
+            int value = switch (element.letter()) {
+                case 'y' -> day.getYear();
+                case 'M' -> day.getMonthValue();
+                case 'd' -> day.getDayOfMonth();
+                case 'H' -> millisOfDay / 3_600_000;
+                case 'h' -> (millisOfDay / 3_600_000 + 11) % 12 + 1;
+                case 'm' -> millisOfDay / 60_000 % 60;
+                case 's' -> millisOfDay / 1000 % 60;
+                default -> millisOfDay % 1000;
+            };
+            pad(out, value, element.width());
+        }
+        return out.toString();
+    }
+
+    @Override
+    public Date unconvert(String value) {
+        int year = 1970, month = 1, day = 1, hour = 0, minute = 0, second = 0, millis = 0;
+        int position = 0;
+        try {
+            for (int i = 0; i < elements.size(); i++) {
+                Element element = elements.get(i);
+                if (element.literal() != null) {
+                    if (!value.startsWith(element.literal(), position)) {
+                        throw new IllegalArgumentException("Invalid date " + value + " of pattern " + pattern);
+                    }
+                    position += element.literal().length();
+                    continue;
+                }
+                boolean fixed = i + 1 < elements.size() && elements.get(i + 1).literal() == null;
+                // a fraction of second reads at most its width, like Joda-Time
+                int max = fixed || element.letter() == 'S' ? element.width() : Integer.MAX_VALUE;
+                int end = position;
+                while (end < value.length() && Character.isDigit(value.charAt(end)) && end - position < max) end++;
+                if (end == position || fixed && end - position < element.width()) {
+                    throw new IllegalArgumentException("Invalid date " + value + " of pattern " + pattern);
+                }
+                int number = Integer.parseInt(value, position, end, 10);
+                int start = position;
+                position = end;
+                switch (element.letter()) {
+                    case 'y' -> year = number;
+                    case 'M' -> month = number;
+                    case 'd' -> day = number;
+                    case 'H' -> hour = ChronoField.HOUR_OF_DAY.checkValidIntValue(number);
+                    case 'h' -> hour = ChronoField.CLOCK_HOUR_OF_AMPM.checkValidIntValue(number) % 12;
+                    case 'm' -> minute = ChronoField.MINUTE_OF_HOUR.checkValidIntValue(number);
+                    case 's' -> second = ChronoField.SECOND_OF_MINUTE.checkValidIntValue(number);
+                    // a fraction of second, as Joda-Time reads it: 5 is 500 and 12 is 120
+                    default -> millis = Integer.parseInt((value.substring(start, end) + "00").substring(0, 3));
+                }
+            }
+            if (position != value.length()) {
+                throw new IllegalArgumentException("Invalid date " + value + " of pattern " + pattern);
+            }
+            long local = LocalDate.of(year, month, day).toEpochDay() * MILLIS_PER_DAY
+                    + hour * 3_600_000L + minute * 60_000L + second * 1000L + millis;
+            int offset = rules.isFixedOffset()
+                    ? rules.getOffset(Instant.EPOCH).getTotalSeconds()
+                    : rules.getOffset(LocalDateTime.of(year, month, day, hour, minute, second)).getTotalSeconds();
+            return new Date(local - offset * 1000L);
+        } catch (DateTimeException | NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid date " + value + " of pattern " + pattern, e);
+        }
+    }
+
+    private int offsetSeconds(long millis) {
+        return rules.isFixedOffset()
+                ? rules.getOffset(Instant.EPOCH).getTotalSeconds()
+                : rules.getOffset(Instant.ofEpochMilli(millis)).getTotalSeconds();
+    }
+
+    private static void pad(StringBuilder out, int value, int width) {
+        if (value < 0) {
+            out.append('-');
+            value = -value;
+        }
+        int digits = 1;
+        for (int rest = value / 10; rest > 0; rest /= 10) {
+            digits++;
+        }
+        for (; digits < width; digits++) {
+            out.append('0');
+        }
+        out.append(value);
+    }
+
+    private static List<Element> compile(String pattern) {
+        List<Element> elements = new ArrayList<>();
+        for (int start = 0, end; start < pattern.length(); start = end) {
+            char letter = pattern.charAt(start);
+            end = start + 1;
+            if (Character.isLetter(letter)) {
+                while (end < pattern.length() && pattern.charAt(end) == letter) end++;
+                int width = end - start;
+                if ("yMdHhmsS".indexOf(letter) < 0 || letter == 'y' && width != 4 || letter == 'S' && width != 3 || "MdHhms".indexOf(letter) >= 0 && width > 2) {
+                    throw new IllegalArgumentException("Unsupported pattern " + pattern);
+                }
+                elements.add(new Element(letter, width, null));
+            } else {
+                while (end < pattern.length() && !Character.isLetter(pattern.charAt(end))) end++;
+                if (pattern.substring(start, end).indexOf('\'') >= 0) {
+                    throw new IllegalArgumentException("Unsupported pattern " + pattern);
+                }
+                elements.add(new Element((char) 0, 0, pattern.substring(start, end)));
+            }
+        }
+        return elements;
+    }
+
+    private record Element(char letter, int width, String literal) {
+    }
+}
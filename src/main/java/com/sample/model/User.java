@@ -8,14 +8,21 @@ import java.util.Date;
 
 @Getter
 @Setter
-@Builder
+@Builder(toBuilder = true)
 @NoArgsConstructor
 @AllArgsConstructor
 @DynamoDBTable(tableName = "user")
 public class User {
 
+    public static final String STATUS_INDEX = "status-index";
+    // firstName-index had no hash key, it is re-keyed under a new name since the keys of an index cannot be changed
+    public static final String FIRST_NAME_INDEX = "firstName-v2-index";
+    public static final String LAST_NAME_INDEX = "lastName-index";
+    public static final String EMAIL_SORT_INDEX = "email-sort-index";
+    public static final String CREATED_AT_INDEX = "createdAt-index";
+
     @DynamoDBHashKey
-//    @DynamoDBIndexHashKey(globalSecondaryIndexNames = {FIRST_NAME})
+    @DynamoDBIndexHashKey(globalSecondaryIndexNames = {FIRST_NAME_INDEX, LAST_NAME_INDEX, EMAIL_SORT_INDEX, CREATED_AT_INDEX})
     private String hashKey;
 
     @DynamoDBRangeKey
@@ -23,10 +30,11 @@ public class User {
     private String rangeKey;
 
     @DynamoDBAttribute
-    @DynamoDBIndexRangeKey(globalSecondaryIndexName = "firstName-index")
+    @DynamoDBIndexRangeKey(globalSecondaryIndexName = FIRST_NAME_INDEX)
     private String firstName;
 
     @DynamoDBAttribute
+    @DynamoDBIndexRangeKey(globalSecondaryIndexName = LAST_NAME_INDEX)
     private String lastName;
 
     @DynamoDBAttribute
@@ -35,19 +43,35 @@ public class User {
 
     @DynamoDBAttribute
     @DynamoDBIndexHashKey(globalSecondaryIndexName = "email-index")
+    @DynamoDBIndexRangeKey(globalSecondaryIndexName = EMAIL_SORT_INDEX)
     private String email;
 
     @DynamoDBAttribute
     private String password;
 
+    /**
+     * a map or a binary attribute, converted by the AddressConverter of the conversion schema of the mapper
+     */
     @DynamoDBAttribute
-    @DynamoDBTyped(DynamoDBMapperFieldModel.DynamoDBAttributeType.M)
     private Address address;
 
     @DynamoDBAttribute
     @DynamoDBTypeConvertedEnum
     private UserStatus status;
 
+    /**
+     * hashKey|status, only set for a status other than NONE, so status-index is sparse
+     */
+    @DynamoDBIndexHashKey(globalSecondaryIndexName = STATUS_INDEX)
+    private String statusKey;
+
+    /**
+     * time of the last status change, order of status-index
+     */
+    @DynamoDBIndexRangeKey(globalSecondaryIndexName = STATUS_INDEX)
+    @DynamoDBTimestamp(pattern = "yyyyMMddHHmmssSSS")
+    private Date statusAt;
+
     @DynamoDBAttribute
     private String searchKeys;
 
@@ -55,13 +79,24 @@ public class User {
     @DynamoDBTyped(DynamoDBMapperFieldModel.DynamoDBAttributeType.BOOL)
     private Boolean isFirstLogin;
 
+    @DynamoDBVersionAttribute
+    private Long version;
+
     @DynamoDBAttribute
     @DynamoDBAutoGeneratedTimestamp(strategy = DynamoDBAutoGenerateStrategy.CREATE)
-    @DynamoDBTypeConvertedTimestamp(pattern = "dd-M-yyyy hh:mm:ss", timeZone = "GTM")
+    @DynamoDBTimestamp(pattern = "dd-M-yyyy hh:mm:ss", timeZone = "GTM")
     private Date createdAt;
 
+    /**
+     * same time as createdAt in a sortable format, order of createdAt-index
+     */
+    @DynamoDBIndexRangeKey(globalSecondaryIndexName = CREATED_AT_INDEX)
+    @DynamoDBAutoGeneratedTimestamp(strategy = DynamoDBAutoGenerateStrategy.CREATE)
+    @DynamoDBTimestamp(pattern = "yyyyMMddHHmmssSSS")
+    private Date createdAtKey;
+
     @DynamoDBAttribute
     @DynamoDBAutoGeneratedTimestamp(strategy = DynamoDBAutoGenerateStrategy.ALWAYS)
-    @DynamoDBTypeConvertedTimestamp(pattern = "yyyyMMddHHmmssSSS")
+    @DynamoDBTimestamp(pattern = "yyyyMMddHHmmssSSS")
     private Date updatedAt;
 }
@@ -0,0 +1,41 @@
+package com.sample.model;
+
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBAttribute;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBHashKey;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBTable;
+import lombok.*;
+
+/**
+ * Reservation of a unique value of user, written in the same transaction as the user
+ */
+@Getter
+@Setter
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@DynamoDBTable(tableName = "user_unique")
+public class UserReservation {
+
+    public static final String PHONE = "phone#";
+    public static final String EMAIL = "email#";
+    // settings of the user table, not a reservation, ex: setting#shards
+    public static final String SETTING = "setting#";
+
+    /**
+     * kind and value, ex: phone#+84912345678, email#john@domain.com
+     */
+    @DynamoDBHashKey
+    private String uniqueKey;
+
+    /**
+     * rangeKey of user
+     */
+    @DynamoDBAttribute
+    private String userId;
+
+    /**
+     * hashKey of user
+     */
+    @DynamoDBAttribute
+    private String userHashKey;
+}
@@ -0,0 +1,43 @@
+package com.sample.model;
+
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBAttribute;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBHashKey;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBRangeKey;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBTable;
+import lombok.*;
+
+/**
+ * Posting of inverted index: token -> user
+ */
+@Getter
+@Setter
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@DynamoDBTable(tableName = "user_search")
+public class UserSearchPosting {
+
+    /**
+     * partition of user, search token and shard of posting, ex: uuid|john, uuid|john;2
+     */
+    @DynamoDBHashKey
+    private String token;
+
+    /**
+     * rangeKey of user
+     */
+    @DynamoDBRangeKey
+    private String userId;
+
+    /**
+     * hashKey of user
+     */
+    @DynamoDBAttribute
+    private String userHashKey;
+
+    /**
+     * version of user which wrote the posting, an older version does not overwrite or delete it
+     */
+    @DynamoDBAttribute
+    private Long userVersion;
+}
@@ -0,0 +1,46 @@
+package com.sample.model;
+
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBAttribute;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBHashKey;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBRangeKey;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBTable;
+import lombok.*;
+
+/**
+ * Prefix entry of typeahead: one item per searchable term of user, sorted by term
+ */
+@Getter
+@Setter
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@DynamoDBTable(tableName = "user_typeahead")
+public class UserTypeahead {
+
+    /**
+     * partition of user and first characters of term, ex: uuid|jo
+     */
+    @DynamoDBHashKey
+    private String bucket;
+
+    /**
+     * term and rangeKey of user, ex: john#2f1c8a52-...
+     */
+    @DynamoDBRangeKey
+    private String term;
+
+    @DynamoDBAttribute
+    private String userId;
+
+    @DynamoDBAttribute
+    private String name;
+
+    @DynamoDBAttribute
+    private String email;
+
+    /**
+     * version of user which wrote the entry, an older version does not overwrite or delete it
+     */
+    @DynamoDBAttribute
+    private Long userVersion;
+}
@@ -0,0 +1,214 @@
+package com.sample.repository;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.sample.exception.InvalidDataException;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Opaque position of a paged listing: the index which was queried, the fingerprint of the filters
+ * and the complete LastEvaluatedKey of every shard which is not exhausted.
+ * It is binary packed then base64url encoded, so the listing resumes in one round trip.
+ * Counts and binary lengths are unsigned varints, so any number of shards fits.
+ */
+@Getter
+@RequiredArgsConstructor
+public class ContinuationToken {
+
+    private static final byte VERSION = 2;
+    private static final String HASH_KEY = "hashKey";
+
+    // common attribute names are written as one byte
+    private static final List<String> NAMES = List.of(HASH_KEY, "rangeKey", "firstName", "lastName", "email", "phone", "status", "createdAt");
+    private static final int CUSTOM_NAME = 0xFF;
+
+    private static final byte TYPE_S = 'S';
+    private static final byte TYPE_N = 'N';
+    private static final byte TYPE_B = 'B';
+
+    /**
+     * Index which was queried, empty for the table
+     */
+    private final String indexName;
+
+    private final int fingerprint;
+
+    /**
+     * shardKey -> LastEvaluatedKey, an empty key means the shard starts from the beginning
+     */
+    private final Map<String, Map<String, AttributeValue>> positions;
+
+    /**
+     * Fingerprint of the filters of a listing
+     *
+     * @param values filters
+     * @return fingerprint
+     */
+    public static int fingerprint(String... values) {
+        Hasher hasher = Hashing.murmur3_32_fixed().newHasher();
+        for (String value : values) {
+            hasher.putString(value == null ? "" : value, StandardCharsets.UTF_8).putByte((byte) 0);
+        }
+        return hasher.hash().asInt();
+    }
+
+    /**
+     * Encode token
+     *
+     * @return base64url token
+     */
+    public String encode() {
+        try (ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+             DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(VERSION);
+            out.writeInt(fingerprint);
+            out.writeUTF(indexName);
+            writeCount(out, positions.size());
+            for (Map.Entry<String, Map<String, AttributeValue>> position : positions.entrySet()) {
+                // hashKey of the table is the shard key, it is restored on decode
+                Map<String, AttributeValue> keys = new LinkedHashMap<>(position.getValue());
+                keys.remove(HASH_KEY, new AttributeValue(position.getKey()));
+                out.writeUTF(position.getKey());
+                writeCount(out, keys.size());
+                out.writeBoolean(position.getValue().isEmpty());
+                for (Map.Entry<String, AttributeValue> key : keys.entrySet()) {
+                    writeName(out, key.getKey());
+                    writeValue(out, key.getValue());
+                }
+            }
+            out.flush();
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes.toByteArray());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Decode token
+     *
+     * @param token base64url token
+     * @return token
+     */
+    public static ContinuationToken decode(String token) {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(Base64.getUrlDecoder().decode(token)))) {
+            if (in.readByte() != VERSION) {
+                throw new InvalidDataException("nextKey is invalid");
+            }
+            int fingerprint = in.readInt();
+            String indexName = in.readUTF();
+            // a shard takes at least 4 bytes, a key attribute at least 3
+            int shards = readCount(in, 4);
+            Map<String, Map<String, AttributeValue>> positions = new LinkedHashMap<>();
+            for (int i = 0; i < shards; i++) {
+                String shardKey = in.readUTF();
+                int size = readCount(in, 3);
+                boolean start = in.readBoolean();
+                Map<String, AttributeValue> keys = new LinkedHashMap<>();
+                if (!start) {
+                    keys.put(HASH_KEY, new AttributeValue(shardKey));
+                }
+                for (int j = 0; j < size; j++) {
+                    keys.put(readName(in), readValue(in));
+                }
+                positions.put(shardKey, keys);
+            }
+            return new ContinuationToken(indexName, fingerprint, positions);
+        } catch (IOException | IllegalArgumentException e) {
+            throw new InvalidDataException("nextKey is invalid");
+        }
+    }
+
+    private static void writeCount(DataOutputStream out, int count) throws IOException {
+        while ((count & ~0x7F) != 0) {
+            out.writeByte(count & 0x7F | 0x80);
+            count >>>= 7;
+        }
+        out.writeByte(count);
+    }
+
+    /**
+     * Read a count written by writeCount, it must fit in the bytes left
+     *
+     * @param in
+     * @param minBytes least number of bytes taken by one counted element
+     * @return count
+     */
+    private static int readCount(DataInputStream in, int minBytes) throws IOException {
+        int count = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = in.readUnsignedByte();
+            if (shift == 28 && b > 0x07) {
+                throw new InvalidDataException("nextKey is invalid");
+            }
+            count |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                break;
+            }
+        }
+        if ((long) count * minBytes > in.available()) {
+            throw new InvalidDataException("nextKey is invalid");
+        }
+        return count;
+    }
+
+    private static void writeName(DataOutputStream out, String name) throws IOException {
+        int index = NAMES.indexOf(name);
+        if (index >= 0) {
+            out.writeByte(index);
+        } else {
+            out.writeByte(CUSTOM_NAME);
+            out.writeUTF(name);
+        }
+    }
+
+    private static String readName(DataInputStream in) throws IOException {
+        int index = in.readUnsignedByte();
+        if (index == CUSTOM_NAME) {
+            return in.readUTF();
+        }
+        if (index >= NAMES.size()) {
+            throw new InvalidDataException("nextKey is invalid");
+        }
+        return NAMES.get(index);
+    }
+
+    private static void writeValue(DataOutputStream out, AttributeValue value) throws IOException {
+        if (value.getS() != null) {
+            out.writeByte(TYPE_S);
+            out.writeUTF(value.getS());
+        } else if (value.getN() != null) {
+            out.writeByte(TYPE_N);
+            out.writeUTF(value.getN());
+        } else if (value.getB() != null) {
+            ByteBuffer buffer = value.getB().duplicate();
+            out.writeByte(TYPE_B);
+            writeCount(out, buffer.remaining());
+            byte[] data = new byte[buffer.remaining()];
+            buffer.get(data);
+            out.write(data);
+        } else {
+            throw new IllegalArgumentException("Unsupported key attribute " + value);
+        }
+    }
+
+    private static AttributeValue readValue(DataInputStream in) throws IOException {
+        byte type = in.readByte();
+        return switch (type) {
+            case TYPE_S -> new AttributeValue().withS(in.readUTF());
+            case TYPE_N -> new AttributeValue().withN(in.readUTF());
+            case TYPE_B -> {
+                byte[] data = new byte[readCount(in, 1)];
+                in.readFully(data);
+                yield new AttributeValue().withB(ByteBuffer.wrap(data));
+            }
+            default -> throw new InvalidDataException("nextKey is invalid");
+        };
+    }
+}
@@ -0,0 +1,101 @@
+package com.sample.repository;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * Size of an item as DynamoDB bills it: names and values in UTF-8 bytes, numbers by their significant digits,
+ * 3 bytes plus 1 byte per element for a map or a list. Reads are billed per 4 KB, writes per 1 KB.
+ */
+public final class ItemSize {
+
+    public static final int READ_UNIT = 4096;
+    public static final int WRITE_UNIT = 1024;
+
+    private ItemSize() {
+    }
+
+    /**
+     * Size of item
+     *
+     * @param item
+     * @return bytes
+     */
+    public static int of(Map<String, AttributeValue> item) {
+        int size = 0;
+        for (Map.Entry<String, AttributeValue> attribute : item.entrySet()) {
+            size += utf8(attribute.getKey()) + of(attribute.getValue());
+        }
+        return size;
+    }
+
+    /**
+     * Capacity units of a strongly consistent read of item, half of it when eventually consistent
+     *
+     * @param bytes
+     * @return read capacity units
+     */
+    public static int readUnits(int bytes) {
+        return Math.max(1, (bytes + READ_UNIT - 1) / READ_UNIT);
+    }
+
+    /**
+     * Capacity units of a write of item
+     *
+     * @param bytes
+     * @return write capacity units
+     */
+    public static int writeUnits(int bytes) {
+        return Math.max(1, (bytes + WRITE_UNIT - 1) / WRITE_UNIT);
+    }
+
+    private static int of(AttributeValue value) {
+        if (value.getS() != null) {
+            return utf8(value.getS());
+        }
+        if (value.getN() != null) {
+            return number(value.getN());
+        }
+        if (value.getB() != null) {
+            return value.getB().remaining();
+        }
+        if (value.getBOOL() != null || value.getNULL() != null) {
+            return 1;
+        }
+        if (value.getM() != null) {
+            int size = 3;
+            for (Map.Entry<String, AttributeValue> entry : value.getM().entrySet()) {
+                size += 1 + utf8(entry.getKey()) + of(entry.getValue());
+            }
+            return size;
+        }
+        if (value.getL() != null) {
+            int size = 3;
+            for (AttributeValue element : value.getL()) {
+                size += 1 + of(element);
+            }
+            return size;
+        }
+        if (value.getSS() != null) {
+            return value.getSS().stream().mapToInt(ItemSize::utf8).sum();
+        }
+        if (value.getNS() != null) {
+            return value.getNS().stream().mapToInt(ItemSize::number).sum();
+        }
+        if (value.getBS() != null) {
+            return value.getBS().stream().mapToInt(x -> x.remaining()).sum();
+        }
+        return 0;
+    }
+
+    private static int number(String number) {
+        long digits = number.chars().filter(Character::isDigit).count();
+        return (int) (digits + 1) / 2 + 1;
+    }
+
+    private static int utf8(String value) {
+        return value.getBytes(StandardCharsets.UTF_8).length;
+    }
+}
@@ -0,0 +1,82 @@
+package com.sample.repository;
+
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapperConfig;
+import com.amazonaws.services.dynamodbv2.model.WriteRequest;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Retry of UnprocessedItems of BatchWriteItem (and UnprocessedKeys of BatchGetItem) with capped exponential backoff and full jitter,
+ * so parallel writers which are throttled together do not retry together
+ */
+@Component
+public class JitteredBatchWriteRetryStrategy implements DynamoDBMapperConfig.BatchWriteRetryStrategy {
+
+    private final int maxRetries;
+    private final long baseDelay;
+    private final long maxDelay;
+    private final Counter retries;
+
+    public JitteredBatchWriteRetryStrategy(MeterRegistry meterRegistry,
+                                           @Value("${amazon.dynamodb.batch-write.max-retries:10}") int maxRetries,
+                                           @Value("${amazon.dynamodb.batch-write.base-delay:50ms}") Duration baseDelay,
+                                           @Value("${amazon.dynamodb.batch-write.max-delay:5s}") Duration maxDelay) {
+        this.maxRetries = maxRetries;
+        this.baseDelay = baseDelay.toMillis();
+        this.maxDelay = maxDelay.toMillis();
+        this.retries = Counter.builder("user.batch.write.retries").register(meterRegistry);
+    }
+
+    @Override
+    public int getMaxRetryOnUnprocessedItems(Map<String, List<WriteRequest>> batchWriteItemInput) {
+        return maxRetries;
+    }
+
+    @Override
+    public long getDelayBeforeRetryUnprocessedItems(Map<String, List<WriteRequest>> unprocessedItems, int retriesAttempted) {
+        retries.increment();
+        return delay(retriesAttempted);
+    }
+
+    /**
+     * Wait before a retry of the unprocessed keys of BatchGetItem, same backoff as the writes
+     *
+     * @param retriesAttempted
+     * @return false when the retries are exhausted
+     */
+    public boolean backoff(int retriesAttempted) {
+        if (retriesAttempted > maxRetries) {
+            return false;
+        }
+        try {
+            Thread.sleep(delay(retriesAttempted));
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private long delay(int retriesAttempted) {
+        long ceiling = Math.min(maxDelay, baseDelay << Math.min(retriesAttempted, 20));
+        return ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+    /**
+     * Mapper config of batch writes using this strategy
+     *
+     * @return config merged over the config of mapper
+     */
+    public DynamoDBMapperConfig config() {
+        return DynamoDBMapperConfig.builder()
+                .withBatchWriteRetryStrategy(this)
+                .build();
+    }
+}
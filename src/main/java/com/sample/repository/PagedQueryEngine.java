@@ -0,0 +1,115 @@
+package com.sample.repository;
+
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBQueryExpression;
+import com.amazonaws.services.dynamodbv2.datamodeling.QueryResultPage;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.ReturnConsumedCapacity;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Read a query page by page until the page of results is full, the query is exhausted
+ * or the budget of items evaluated / capacity consumed is spent.
+ * The limit of every call is sized from the number of missing results, so it never reads
+ * far beyond what the page needs, and the returned key resumes exactly after the last returned item.
+ */
+@Component
+@Slf4j
+public class PagedQueryEngine {
+
+    private static final int MAX_LIMIT = 1000;
+
+    private final DynamoDBMapper dynamoDBMapper;
+    private final int maxEvaluatedItems;
+    private final double maxCapacityUnits;
+
+    public PagedQueryEngine(DynamoDBMapper dynamoDBMapper,
+                            @Value("${amazon.dynamodb.query.max-evaluated-items:2000}") int maxEvaluatedItems,
+                            @Value("${amazon.dynamodb.query.max-capacity-units:100}") double maxCapacityUnits) {
+        this.dynamoDBMapper = dynamoDBMapper;
+        this.maxEvaluatedItems = maxEvaluatedItems;
+        this.maxCapacityUnits = maxCapacityUnits;
+    }
+
+    /**
+     * Query one page
+     *
+     * @param clazz           type of item
+     * @param queryExpression query, its exclusive start key is the position to resume
+     * @param pageSize        maximum items of page
+     * @param shares          number of queries sharing the budget of the request
+     * @param keyOf           key of item on the queried table or index
+     * @return page of items and key to resume, the key is null when the query is exhausted
+     */
+    public <T> QueryPage<T> query(Class<T> clazz, DynamoDBQueryExpression<T> queryExpression, int pageSize, int shares,
+                                  Function<T, Map<String, AttributeValue>> keyOf) {
+        int evaluatedBudget = Math.max(pageSize, maxEvaluatedItems / Math.max(shares, 1));
+        double capacityBudget = maxCapacityUnits / Math.max(shares, 1);
+
+        List<T> items = new ArrayList<>(pageSize);
+        Map<String, AttributeValue> lastKey = queryExpression.getExclusiveStartKey();
+        int evaluated = 0;
+        double capacity = 0;
+        int calls = 0;
+        int limit = pageSize;
+
+        queryExpression.withReturnConsumedCapacity(ReturnConsumedCapacity.TOTAL);
+        while (true) {
+            queryExpression.withExclusiveStartKey(lastKey).withLimit(limit);
+            QueryResultPage<T> resultPage = dynamoDBMapper.queryPage(clazz, queryExpression);
+            calls++;
+            evaluated += resultPage.getScannedCount() == null ? 0 : resultPage.getScannedCount();
+            if (resultPage.getConsumedCapacity() != null && resultPage.getConsumedCapacity().getCapacityUnits() != null) {
+                capacity += resultPage.getConsumedCapacity().getCapacityUnits();
+            }
+
+            List<T> results = resultPage.getResults();
+            int missing = pageSize - items.size();
+            if (results.size() >= missing && !results.isEmpty() && missing > 0) {
+                // page is full, resume after the last returned item instead of the last evaluated one
+                items.addAll(results.subList(0, missing));
+                lastKey = results.size() == missing && resultPage.getLastEvaluatedKey() == null
+                        ? null
+                        : keyOf.apply(items.get(items.size() - 1));
+                break;
+            }
+
+            items.addAll(results);
+            lastKey = resultPage.getLastEvaluatedKey();
+            if (lastKey == null) {
+                break;
+            }
+            if (evaluated >= evaluatedBudget || capacity >= capacityBudget) {
+                log.info("Query budget is spent, evaluated={}, capacity={}, items={}", evaluated, capacity, items.size());
+                break;
+            }
+
+            // size the next call from the selectivity observed so far
+            missing = pageSize - items.size();
+            double selectivity = Math.max(items.size(), 1) / (double) Math.max(evaluated, 1);
+            limit = (int) Math.min(Math.ceil(missing / selectivity), Math.min(MAX_LIMIT, evaluatedBudget - evaluated));
+            limit = Math.max(limit, missing);
+        }
+
+        log.debug("Queried page, calls={}, evaluated={}, capacity={}, items={}", calls, evaluated, capacity, items.size());
+        return new QueryPage<>(items, lastKey, evaluated, capacity);
+    }
+
+    /**
+     * Page of query
+     *
+     * @param items            items of page
+     * @param lastEvaluatedKey key to resume, null when the query is exhausted
+     * @param evaluated        items evaluated by DynamoDB
+     * @param capacity         capacity units consumed
+     */
+    public record QueryPage<T>(List<T> items, Map<String, AttributeValue> lastEvaluatedKey, int evaluated, double capacity) {
+    }
+}
@@ -0,0 +1,88 @@
+package com.sample.repository;
+
+import com.google.common.hash.Hashing;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Spread users of one logical partition (ex: "uuid") across N physical partition keys.
+ * The shard is derived from the rangeKey, so a user is always resolvable from its public id.
+ */
+@Component
+@Slf4j
+public class ShardKeyStrategy {
+
+    public static final String SHARD_SEPARATOR = "#";
+
+    @Getter
+    private final int shards;
+
+    public ShardKeyStrategy(@Value("${amazon.dynamodb.user.shards:1}") int shards) {
+        if (shards < 1) {
+            throw new IllegalArgumentException("amazon.dynamodb.user.shards must be greater than 0");
+        }
+        this.shards = shards;
+        log.info("User partition is sharded into {} shard(s)", shards);
+    }
+
+    /**
+     * Get physical partition key of user
+     *
+     * @param hashKey  logical partition key or physical partition key
+     * @param rangeKey public id of user
+     * @return physical partition key
+     */
+    public String shardKey(String hashKey, String rangeKey) {
+        if (shards == 1 || isSharded(hashKey)) {
+            return hashKey;
+        }
+        return shardKey(hashKey, shardOf(rangeKey));
+    }
+
+    /**
+     * Get all physical partition keys of logical partition
+     *
+     * @param hashKey logical partition key
+     * @return physical partition keys, ordered by shard number
+     */
+    public List<String> shardKeys(String hashKey) {
+        if (shards == 1 || isSharded(hashKey)) {
+            return List.of(hashKey);
+        }
+        List<String> keys = new ArrayList<>(shards);
+        for (int shard = 0; shard < shards; shard++) {
+            keys.add(shardKey(hashKey, shard));
+        }
+        return keys;
+    }
+
+    /**
+     * Get logical partition key of user
+     *
+     * @param hashKey physical partition key
+     * @return logical partition key
+     */
+    public String logicalKey(String hashKey) {
+        int index = hashKey.lastIndexOf(SHARD_SEPARATOR);
+        return index < 0 ? hashKey : hashKey.substring(0, index);
+    }
+
+    private String shardKey(String hashKey, int shard) {
+        return hashKey + SHARD_SEPARATOR + shard;
+    }
+
+    private int shardOf(String rangeKey) {
+        int hash = Hashing.murmur3_32_fixed().hashString(rangeKey, StandardCharsets.UTF_8).asInt();
+        return Math.floorMod(hash, shards);
+    }
+
+    private boolean isSharded(String hashKey) {
+        return hashKey.contains(SHARD_SEPARATOR);
+    }
+}
@@ -0,0 +1,164 @@
+package com.sample.repository;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.sample.model.User;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Supplier;
+
+/**
+ * Size and TTL bounded cache of the projected attributes of users (see UserProjection) by composite key.
+ * Concurrent misses on a key share one load, a missing user is cached as empty.
+ * Users are copied in and out, so a caller mutating its user never changes the cached one.
+ * An invalidation bumps the generation of its key, and a load which started before it does not stay in the cache,
+ * since it may have read the user before the write.
+ */
+@Component
+@Slf4j
+public class UserCache {
+
+    // generations of keys by hash, keys sharing a stripe only cost a spurious miss
+    private static final int STRIPES = 1024;
+
+    private final boolean enabled;
+    private final AtomicLongArray generations = new AtomicLongArray(STRIPES);
+    private final Cache<Key, Optional<User>> cache;
+
+    public UserCache(MeterRegistry meterRegistry,
+                     @Value("${amazon.dynamodb.cache.user.enabled:true}") boolean enabled,
+                     @Value("${amazon.dynamodb.cache.user.max-size:10000}") long maxSize,
+                     @Value("${amazon.dynamodb.cache.user.ttl:60s}") Duration ttl) {
+        this.enabled = enabled;
+        this.cache = CacheBuilder.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .build();
+        GuavaCacheMetrics.monitor(meterRegistry, cache, "users");
+        log.info("User cache enabled={}, maxSize={}, ttl={}", enabled, maxSize, ttl);
+    }
+
+    /**
+     * Get user from cache, or load it once for all of concurrent callers
+     *
+     * @param hashKey physical partition key
+     * @param rangeKey
+     * @param loader  load user from DynamoDB, return null when not found
+     * @return user or null
+     */
+    public User get(String hashKey, String rangeKey, Supplier<User> loader) {
+        if (!enabled) {
+            return loader.get();
+        }
+        Key key = new Key(hashKey, rangeKey);
+        long generation = generationOf(key);
+        try {
+            Optional<User> user = cache.get(key, () -> Optional.ofNullable(copy(loader.get())));
+            if (generationOf(key) != generation) {
+                cache.asMap().remove(key, user);
+            }
+            return user.map(UserCache::copy).orElse(null);
+        } catch (UncheckedExecutionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * Get cached users without loading them
+     *
+     * @param keys
+     * @return cached users, a missing user is cached as empty
+     */
+    public Map<Key, Optional<User>> getAllPresent(Collection<Key> keys) {
+        Map<Key, Optional<User>> result = new HashMap<>();
+        if (enabled) {
+            cache.getAllPresent(keys).forEach((key, user) -> result.put(key, user.map(UserCache::copy)));
+        }
+        return result;
+    }
+
+    /**
+     * Get generations of keys, before their users are loaded
+     *
+     * @param keys
+     * @return generation by key
+     */
+    public Map<Key, Long> generationsOf(Collection<Key> keys) {
+        Map<Key, Long> result = new HashMap<>();
+        keys.forEach(key -> result.put(key, generationOf(key)));
+        return result;
+    }
+
+    /**
+     * Cache users loaded by a batch, a user cached meanwhile is kept and a user invalidated meanwhile is not cached
+     *
+     * @param users       loaded users, empty for a missing user
+     * @param generations generations of keys before the load
+     */
+    public void putAll(Map<Key, Optional<User>> users, Map<Key, Long> generations) {
+        if (!enabled) {
+            return;
+        }
+        users.forEach((key, user) -> {
+            long generation = generations.get(key);
+            if (generationOf(key) != generation) {
+                return;
+            }
+            Optional<User> value = user.map(UserCache::copy);
+            if (cache.asMap().putIfAbsent(key, value) == null && generationOf(key) != generation) {
+                cache.asMap().remove(key, value);
+            }
+        });
+    }
+
+    /**
+     * Drop user after it is written
+     *
+     * @param hashKey physical partition key
+     * @param rangeKey
+     */
+    public void invalidate(String hashKey, String rangeKey) {
+        Key key = new Key(hashKey, rangeKey);
+        generations.incrementAndGet(stripeOf(key));
+        cache.invalidate(key);
+    }
+
+    private long generationOf(Key key) {
+        return generations.get(stripeOf(key));
+    }
+
+    private static int stripeOf(Key key) {
+        return Math.floorMod(key.hashCode(), STRIPES);
+    }
+
+    private static User copy(User user) {
+        return user == null ? null : user.toBuilder().build();
+    }
+
+    /**
+     * Composite key of user
+     *
+     * @param hashKey  physical partition key
+     * @param rangeKey
+     */
+    public record Key(String hashKey, String rangeKey) {
+    }
+}
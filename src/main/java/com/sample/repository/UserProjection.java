@@ -0,0 +1,75 @@
+package com.sample.repository;
+
+import com.sample.dto.response.UserResponse;
+import com.sample.model.User;
+
+import java.util.*;
+
+/**
+ * Attributes of user which the read paths fetch, the ones toResponse maps,
+ * so password, searchKeys and the audit timestamps are never read to be dropped.
+ */
+public final class UserProjection {
+
+    /**
+     * attributes of User read by toResponse, id is the rangeKey
+     */
+    public static final List<String> RESPONSE = List.of("rangeKey", "firstName", "lastName", "phone", "email", "address", "version");
+
+    /**
+     * attributes of User which listings filter on, an index serving listings projects them too
+     */
+    public static final List<String> FILTERS = List.of("firstName", "lastName", "phone", "email", "address", "status");
+
+    private UserProjection() {
+    }
+
+    /**
+     * Projection of the response and extra attributes, ex: keys of the queried index
+     *
+     * @param extra
+     * @return projected attributes, in order and without duplicates
+     */
+    public static Set<String> of(Collection<String> extra) {
+        Set<String> attributes = new LinkedHashSet<>();
+        attributes.add("hashKey");
+        attributes.addAll(RESPONSE);
+        attributes.addAll(extra);
+        return attributes;
+    }
+
+    /**
+     * Map user to its response, a change of the attributes it reads goes with RESPONSE
+     *
+     * @param user user with the attributes of RESPONSE at least
+     * @return response
+     */
+    public static UserResponse toResponse(User user) {
+        return UserResponse.builder()
+                .id(user.getRangeKey())
+                .firstName(user.getFirstName())
+                .lastName(user.getLastName())
+                .phone(user.getPhone())
+                .email(user.getEmail())
+                .address(user.getAddress())
+                .version(user.getVersion())
+                .build();
+    }
+
+    /**
+     * ProjectionExpression of attributes, every name is aliased since some are reserved words
+     *
+     * @param attributes
+     * @param names      aliases are added to it
+     * @return expression, ex: #p0, #p1
+     */
+    public static String expression(Collection<String> attributes, Map<String, String> names) {
+        StringJoiner expression = new StringJoiner(", ");
+        for (String attribute : attributes) {
+            String alias = "#p" + names.size();
+            names.put(alias, attribute);
+            expression.add(alias);
+        }
+        return expression.toString();
+    }
+}
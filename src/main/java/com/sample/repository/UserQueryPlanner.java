@@ -0,0 +1,401 @@
+package com.sample.repository;
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapperConfig;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.ComparisonOperator;
+import com.amazonaws.services.dynamodbv2.model.Condition;
+import com.amazonaws.services.dynamodbv2.model.TableDescription;
+import com.google.common.base.Suppliers;
+import com.sample.exception.InvalidDataException;
+import com.sample.model.AddressConverter;
+import com.sample.model.User;
+import com.sample.util.UserStatus;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Choose the access path of a listing from the filters which are present: a unique lookup on phone-index or email-index,
+ * the sparse status-index, a name index answering an exact name, the index of the requested order or the partitions of the table.
+ * Each path is costed by the items it might read, from the item counts of DescribeTable, and the cheapest one is chosen.
+ * The filters which are not answered by the key of the path are pushed down as a FilterExpression.
+ * An ordered listing is always served by the index of its order, a page never sorts more than what it reads.
+ */
+@Component
+@Slf4j
+public class UserQueryPlanner {
+
+    public static final String TABLE = "table";
+    private static final String PHONE_INDEX = "phone-index";
+    private static final String EMAIL_INDEX = "email-index";
+
+    // share of the users of an index assumed to match an exact name, DynamoDB keeps no histogram
+    private static final double NAME_SELECTIVITY = 0.01;
+
+    // IN of a FilterExpression takes at most 100 operands
+    private static final int MAX_IN_OPERANDS = 100;
+
+    // sortable attribute -> index whose range key it is, the hash key of these indexes is the hashKey of the shard
+    private static final Map<String, SortIndex> SORT_INDEXES = Map.of(
+            "firstName", new SortIndex(User.FIRST_NAME_INDEX, "firstName", ascending(User::getFirstName)),
+            "lastName", new SortIndex(User.LAST_NAME_INDEX, "lastName", ascending(User::getLastName)),
+            "email", new SortIndex(User.EMAIL_SORT_INDEX, "email", ascending(User::getEmail)),
+            "createdAt", new SortIndex(User.CREATED_AT_INDEX, "createdAtKey", ascending(User::getCreatedAtKey)));
+
+    private final DynamoDBMapper dynamoDBMapper;
+    private final AmazonDynamoDB amazonDynamoDB;
+    private final DynamoDBMapperConfig dynamoDBMapperConfig;
+    private final ShardKeyStrategy shardKeyStrategy;
+    private final MeterRegistry meterRegistry;
+    private final Supplier<Map<String, Long>> itemCounts;
+
+    public UserQueryPlanner(DynamoDBMapper dynamoDBMapper, AmazonDynamoDB amazonDynamoDB, DynamoDBMapperConfig dynamoDBMapperConfig,
+                            ShardKeyStrategy shardKeyStrategy, MeterRegistry meterRegistry,
+                            @Value("${amazon.dynamodb.query.statistics-ttl:10m}") Duration statisticsTtl) {
+        this.dynamoDBMapper = dynamoDBMapper;
+        this.amazonDynamoDB = amazonDynamoDB;
+        this.dynamoDBMapperConfig = dynamoDBMapperConfig;
+        this.shardKeyStrategy = shardKeyStrategy;
+        this.meterRegistry = meterRegistry;
+        this.itemCounts = Suppliers.memoizeWithExpiration(this::describeItemCounts, statisticsTtl.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Plan a listing of users
+     *
+     * @param hashKey   logical partition key
+     * @param firstName
+     * @param lastName
+     * @param phone
+     * @param email
+     * @param address
+     * @param status
+     * @param orderBy   firstName, lastName, email or createdAt, optionally followed by :asc or :desc, ex: lastName:desc
+     * @return plan
+     */
+    public QueryPlan plan(String hashKey, String firstName, String lastName, String phone, String email, String address, String status, String orderBy) {
+        List<String> shardKeys = shardKeyStrategy.shardKeys(hashKey);
+        Map<String, Long> counts = itemCounts.get();
+        long tableCost = counts.getOrDefault(TABLE, Long.MAX_VALUE);
+        UserStatus indexedStatus = indexedStatusOf(status);
+        Order order = Order.parse(orderBy);
+        Map<String, String> names = new HashMap<>();
+        names.put("firstName", firstName);
+        names.put("lastName", lastName);
+
+        // candidates in order of preference, the first of the lowest cost wins
+        List<Candidate> candidates = new ArrayList<>();
+        if (shardKeys.size() <= MAX_IN_OPERANDS) {
+            // phone and email are reserved, so a lookup reads at most one user whatever the order
+            if (StringUtils.hasLength(phone)) {
+                candidates.add(new Candidate(PHONE_INDEX, "phone", 1));
+            }
+            if (StringUtils.hasLength(email)) {
+                candidates.add(new Candidate(EMAIL_INDEX, "email", 1));
+            }
+        }
+        if (order != null) {
+            SortIndex index = order.index();
+            long indexCost = counts.getOrDefault(index.name(), tableCost);
+            String exact = names.get(index.attribute());
+            candidates.add(StringUtils.hasLength(exact)
+                    ? new Candidate(index.name(), index.attribute(), scale(indexCost, NAME_SELECTIVITY))
+                    : new Candidate(index.name(), null, indexCost));
+        } else {
+            if (indexedStatus != null) {
+                candidates.add(new Candidate(User.STATUS_INDEX, "status", counts.getOrDefault(User.STATUS_INDEX, tableCost)));
+            }
+            for (String name : List.of("firstName", "lastName")) {
+                if (StringUtils.hasLength(names.get(name))) {
+                    SortIndex index = SORT_INDEXES.get(name);
+                    candidates.add(new Candidate(index.name(), name, scale(counts.getOrDefault(index.name(), tableCost), NAME_SELECTIVITY)));
+                }
+            }
+            candidates.add(new Candidate(TABLE, null, tableCost));
+        }
+        Candidate chosen = candidates.stream().min(Comparator.comparingLong(Candidate::cost)).orElseThrow();
+
+        // filters which are not answered by the key of the path
+        Filter filter = new Filter();
+        Map<String, String> equalities = new LinkedHashMap<>();
+        equalities.put("firstName", firstName);
+        equalities.put("lastName", lastName);
+        equalities.put("phone", phone);
+        equalities.put("email", email);
+        equalities.put("address.text", address);
+        equalities.put("status", StringUtils.hasLength(status) ? status.toUpperCase() : null);
+        equalities.forEach((name, value) -> {
+            if (name.equals("address.text")) {
+                filter.equalAddress(value);
+            } else if (!name.equals(chosen.answers())) {
+                filter.equal(name, value);
+            }
+        });
+
+        QueryPlan plan = switch (chosen.path()) {
+            case PHONE_INDEX, EMAIL_INDEX -> {
+                // the index spans every partition and projects keys only: keep the users of the shards of hashKey,
+                // then fetch them from the table where the other filters apply
+                Filter keys = new Filter();
+                keys.in("hashKey", shardKeys);
+                User hashKeyValues = PHONE_INDEX.equals(chosen.path())
+                        ? User.builder().phone(phone).build()
+                        : User.builder().email(email).build();
+                yield new QueryPlan(chosen.path(), chosen.path(), List.of(hashKey), partition -> hashKeyValues, null,
+                        List.of(chosen.answers()), keys, filter, true, Comparator.comparing(User::getRangeKey), chosen.cost());
+            }
+            case User.STATUS_INDEX -> new QueryPlan(chosen.path(), User.STATUS_INDEX, shardKeys,
+                    partition -> User.builder().statusKey(UserRepository.statusKeyOf(partition, indexedStatus)).build(), null,
+                    List.of("statusKey", "statusAt"), filter, null, false,
+                    Comparator.comparing(User::getStatusAt, Comparator.nullsLast(Comparator.<Date>reverseOrder())).thenComparing(User::getRangeKey),
+                    chosen.cost());
+            case TABLE -> new QueryPlan(TABLE, "", shardKeys,
+                    partition -> User.builder().hashKey(partition).build(), null,
+                    List.of(), filter, null, true, Comparator.comparing(User::getRangeKey), chosen.cost());
+            default -> {
+                // an index of SORT_INDEXES, in the requested order or ascending for an exact name
+                SortIndex index = order != null ? order.index() : SORT_INDEXES.get(chosen.answers());
+                boolean ascending = order == null || order.ascending();
+                Condition rangeKeyCondition = chosen.answers() == null ? null : new Condition()
+                        .withComparisonOperator(ComparisonOperator.EQ)
+                        .withAttributeValueList(new AttributeValue(names.get(chosen.answers())));
+                Comparator<User> comparator = index.order().thenComparing(User::getRangeKey);
+                yield new QueryPlan(chosen.path(), index.name(), shardKeys,
+                        partition -> User.builder().hashKey(partition).build(), rangeKeyCondition == null ? null : Map.of(index.attribute(), rangeKeyCondition),
+                        List.of(index.attribute()), filter, null, ascending, ascending ? comparator : comparator.reversed(), chosen.cost());
+            }
+        };
+
+        Counter.builder("user.query.plans").tag("path", plan.path()).register(meterRegistry).increment();
+        if (plan.estimatedCost() != Long.MAX_VALUE) {
+            DistributionSummary.builder("user.query.plan.estimated.cost").tag("path", plan.path()).register(meterRegistry)
+                    .record(plan.estimatedCost());
+        }
+        log.debug("Query plan, path={}, estimatedCost={}, candidates={}, filter={}", plan.path(),
+                plan.estimatedCost() == Long.MAX_VALUE ? "unknown" : plan.estimatedCost(), candidates, plan.filterExpression());
+        return plan;
+    }
+
+    /**
+     * Record the items evaluated and the capacity consumed by a plan, to compare with its estimated cost
+     *
+     * @param plan
+     * @param evaluated items evaluated by DynamoDB
+     * @param capacity  read capacity units consumed
+     */
+    public void record(QueryPlan plan, long evaluated, double capacity) {
+        DistributionSummary.builder("user.query.plan.evaluated").tag("path", plan.path()).register(meterRegistry).record(evaluated);
+        DistributionSummary.builder("user.query.plan.capacity").tag("path", plan.path()).register(meterRegistry).record(capacity);
+        log.debug("Query plan is executed, path={}, evaluated={}, capacity={}", plan.path(), evaluated, capacity);
+    }
+
+    /**
+     * Build the key to resume a query of plan after the user
+     *
+     * @param plan
+     * @param user
+     * @return exclusive start key
+     */
+    public Map<String, AttributeValue> startKeyOf(QueryPlan plan, User user) {
+        Map<String, AttributeValue> keys = new LinkedHashMap<>();
+        keys.put("hashKey", new AttributeValue(user.getHashKey()));
+        keys.put("rangeKey", new AttributeValue(user.getRangeKey()));
+        if (!plan.indexKeys().isEmpty()) {
+            Map<String, AttributeValue> item = dynamoDBMapper.getTableModel(User.class).convert(user);
+            plan.indexKeys().forEach(name -> keys.put(name, item.get(name)));
+        }
+        return keys;
+    }
+
+    /**
+     * Status which is read from status-index
+     *
+     * @param status requested status
+     * @return status, null for NONE or an unknown status which are filtered
+     */
+    private static UserStatus indexedStatusOf(String status) {
+        if (!StringUtils.hasLength(status)) {
+            return null;
+        }
+        return Arrays.stream(UserStatus.values())
+                .filter(x -> x != UserStatus.NONE && x.name().equalsIgnoreCase(status))
+                .findFirst()
+                .orElse(null);
+    }
+
+    private static <T extends Comparable<? super T>> Comparator<User> ascending(Function<User, T> value) {
+        return Comparator.comparing(value, Comparator.nullsLast(Comparator.naturalOrder()));
+    }
+
+    private static long scale(long count, double selectivity) {
+        return count == Long.MAX_VALUE ? count : Math.max(1, (long) Math.ceil(count * selectivity));
+    }
+
+    /**
+     * Item counts of the table and its indexes, DynamoDB refreshes them about every six hours
+     *
+     * @return count by index name, table for the table, empty when the table cannot be described
+     */
+    private Map<String, Long> describeItemCounts() {
+        String tableName = DynamoDBMapperConfig.DefaultTableNameResolver.INSTANCE.getTableName(User.class, dynamoDBMapperConfig);
+        try {
+            TableDescription table = amazonDynamoDB.describeTable(tableName).getTable();
+            Map<String, Long> counts = new HashMap<>();
+            counts.put(TABLE, table.getItemCount());
+            if (table.getGlobalSecondaryIndexes() != null) {
+                table.getGlobalSecondaryIndexes().forEach(index -> counts.put(index.getIndexName(), index.getItemCount()));
+            }
+            log.debug("Item counts of table={}, counts={}", tableName, counts);
+            return counts;
+        } catch (RuntimeException e) {
+            log.warn("Failed to describe table={}, plans rank the paths without costs, reason={}", tableName, e.getMessage());
+            return Map.of();
+        }
+    }
+
+    private record Candidate(String path, String answers, long cost) {
+    }
+
+    /**
+     * Index of an order
+     *
+     * @param name      index name
+     * @param attribute range key of index
+     * @param order     ascending order of range key
+     */
+    private record SortIndex(String name, String attribute, Comparator<User> order) {
+    }
+
+    /**
+     * Order of a listing
+     *
+     * @param index
+     * @param ascending
+     */
+    private record Order(SortIndex index, boolean ascending) {
+
+        static Order parse(String orderBy) {
+            if (!StringUtils.hasLength(orderBy)) {
+                return null;
+            }
+            String[] parts = orderBy.split(":", 2);
+            SortIndex index = SORT_INDEXES.get(parts[0]);
+            String direction = parts.length > 1 ? parts[1].toLowerCase() : "asc";
+            if (index == null || !(direction.equals("asc") || direction.equals("desc"))) {
+                throw new InvalidDataException("orderBy must be firstName, lastName, email or createdAt, optionally followed by :asc or :desc");
+            }
+            return new Order(index, direction.equals("asc"));
+        }
+    }
+
+    /**
+     * Conjunction of predicates, attribute names are always aliased since some are reserved words (ex: status)
+     */
+    public static class Filter {
+
+        private final StringJoiner expression = new StringJoiner(" AND ");
+        private final Map<String, String> names = new HashMap<>();
+        private final Map<String, AttributeValue> values = new HashMap<>();
+
+        public String expression() {
+            return expression.toString();
+        }
+
+        public Map<String, String> names() {
+            return names;
+        }
+
+        public Map<String, AttributeValue> values() {
+            return values;
+        }
+
+        void equal(String path, String value) {
+            if (StringUtils.hasLength(value)) {
+                expression.add(name(path) + " = " + value(value));
+            }
+        }
+
+        /**
+         * Text of address, stored in a map or at the start of a binary attribute depending on the encoding it was written with
+         *
+         * @param text
+         */
+        void equalAddress(String text) {
+            if (StringUtils.hasLength(text)) {
+                expression.add("(" + name("address.text") + " = " + value(text) + " OR begins_with(" + name("address") + ", "
+                        + value(new AttributeValue().withB(ByteBuffer.wrap(AddressConverter.prefixOf(text)))) + "))");
+            }
+        }
+
+        void in(String path, List<String> values) {
+            StringJoiner operands = new StringJoiner(", ", name(path) + " IN (", ")");
+            values.forEach(x -> operands.add(value(x)));
+            expression.add(operands.toString());
+        }
+
+        private String name(String path) {
+            StringJoiner result = new StringJoiner(".");
+            for (String name : path.split("\\.")) {
+                names.put("#" + name, name);
+                result.add("#" + name);
+            }
+            return result.toString();
+        }
+
+        private String value(String value) {
+            return value(new AttributeValue(value));
+        }
+
+        private String value(AttributeValue value) {
+            String key = ":v" + values.size();
+            values.put(key, value);
+            return key;
+        }
+    }
+
+    /**
+     * Access path of a listing
+     *
+     * @param path               name of path, ex: phone-index
+     * @param indexName          index to query, empty for the table
+     * @param partitions         partitions queried in parallel, the keys of the continuation token
+     * @param hashKeyValues      hash key of the query of a partition
+     * @param rangeKeyConditions key condition on the range key of index, null for none
+     * @param indexKeys          key attributes of index beyond the keys of the table
+     * @param filter             predicates which are not answered by the key
+     * @param fetchFilter        predicates applied when the users of a keys only index are fetched from the table, null when the index projects them
+     * @param scanIndexForward
+     * @param order              order of the query, to merge the partitions
+     * @param estimatedCost      items which might be read, Long.MAX_VALUE when unknown
+     */
+    public record QueryPlan(String path, String indexName, List<String> partitions, Function<String, User> hashKeyValues,
+                            Map<String, Condition> rangeKeyConditions, List<String> indexKeys,
+                            Filter filter, Filter fetchFilter, boolean scanIndexForward, Comparator<User> order, long estimatedCost) {
+
+        public String filterExpression() {
+            return filter.expression();
+        }
+
+        /**
+         * Attributes read by the query, null when the index projects keys only
+         *
+         * @return attributes
+         */
+        public Set<String> projection() {
+            return fetchFilter != null ? null : UserProjection.of(indexKeys);
+        }
+    }
+}
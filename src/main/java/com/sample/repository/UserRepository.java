@@ -1,77 +1,597 @@
 package com.sample.repository;
 
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
 import com.amazonaws.services.dynamodbv2.datamodeling.*;
-import com.amazonaws.services.dynamodbv2.model.AttributeValue;
-import com.amazonaws.services.dynamodbv2.model.ExpectedAttributeValue;
+import com.amazonaws.services.dynamodbv2.model.*;
+import com.google.common.collect.Lists;
 import com.sample.dto.response.LoadingPageResponse;
 import com.sample.dto.response.UserResponse;
+import com.sample.exception.ConflictException;
+import com.sample.exception.InvalidDataException;
+import com.sample.exception.ResourceNotFoundException;
+import com.sample.model.AddressConverter;
 import com.sample.model.User;
+import com.sample.model.UserReservation;
+import com.sample.util.SearchTokenizer;
+import com.sample.util.UserStatus;
+import lombok.Getter;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Repository;
 import org.springframework.util.StringUtils;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 @Repository
 @Slf4j
 @RequiredArgsConstructor
 public class UserRepository {
 
+    private static final String SEARCH_INDEX = "search";
+    private static final int BATCH_GET_SIZE = 100;
+    private static final int STREAM_PAGE_SIZE = 100;
+    // a user and its two reservations, within the 100 items of a transaction
+    private static final int TRANSACT_USERS = 33;
+    private static final String[] CREATE_FAILURES = {"User exists", "Phone is registered", "Email is registered"};
+
     private final DynamoDBMapper dynamoDBMapper;
+    private final ShardKeyStrategy shardKeyStrategy;
+    private final Executor dynamoDBQueryExecutor;
+    private final PagedQueryEngine pagedQueryEngine;
+    private final UserSearchRepository userSearchRepository;
+    private final UserCache userCache;
+    private final JitteredBatchWriteRetryStrategy batchWriteRetryStrategy;
+    private final AmazonDynamoDB amazonDynamoDB;
+    private final DynamoDBMapperConfig dynamoDBMapperConfig;
+    private final VersionConflictPolicy versionConflictPolicy;
+    private final UserQueryPlanner userQueryPlanner;
+    private final AddressConverter addressConverter;
 
     /**
-     * Save user to dynamodb
+     * Create user and reserve its phone and email in one transaction
      *
      * @param user
-     * @return
+     * @return user
      */
-    public User save(User user) {
-        log.info("Saving user, object={}", user);
+    public User create(User user) {
+        log.info("Creating user, rangeKey={}", user.getRangeKey());
+        user.setHashKey(shardKeyStrategy.shardKey(user.getHashKey(), user.getRangeKey()));
+        indexStatus(user);
 
-        dynamoDBMapper.save(user);
-        log.info("Sample user has saved");
+        // the mapper conditions a versioned put of a new user on attribute_not_exists(version)
+        TransactionWriteRequest request = new TransactionWriteRequest()
+                .addPut(user)
+                .addPut(reservation(UserReservation.PHONE, user.getPhone(), user), condition("attribute_not_exists(uniqueKey)"))
+                .addPut(reservation(UserReservation.EMAIL, user.getEmail(), user), condition("attribute_not_exists(uniqueKey)"));
+        try {
+            transactionWrite(request, Arrays.asList(
+                    reason -> new InvalidDataException("User exists"),
+                    reason -> new InvalidDataException("Phone is registered"),
+                    reason -> new InvalidDataException("Email is registered")));
+        } finally {
+            userCache.invalidate(user.getHashKey(), user.getRangeKey());
+        }
+        log.info("User has created");
         return user;
     }
 
     /**
-     * Update user to dynamodb
+     * Create users and reserve their phones and emails, each user with its reservations in one TransactWriteItems of up to 33 users.
+     * Like create, a user is only written when its phone and email are not reserved, so a user is never left without its reservations.
+     * A user failing a condition is reported and the others of its transaction are written again, a transaction cancelled
+     * for another reason (ex: a conflict with a concurrent write) is retried with jittered backoff.
      *
-     * @param user
-     * @param hashKey
-     * @return
+     * @param users
+     * @return reason by rangeKey of users which are not created
      */
-    public String update(User user, String hashKey) {
-        log.info("Updating user by composite key hashKey={}, rangeKey={}", hashKey, user.getRangeKey());
+    public Map<String, String> createAll(List<User> users) {
+        log.info("Creating users in transactions, size={}", users.size());
+
+        Map<String, String> failures = new HashMap<>();
+        for (User user : users) {
+            user.setHashKey(shardKeyStrategy.shardKey(user.getHashKey(), user.getRangeKey()));
+            indexStatus(user);
+        }
+        for (List<User> chunk : Lists.partition(users, TRANSACT_USERS)) {
+            createChunk(chunk, failures);
+        }
+        if (!failures.isEmpty()) {
+            log.warn("Users are not created in transactions, failed={}", failures.size());
+        }
+        return failures;
+    }
 
-        dynamoDBMapper.save(user,
-                new DynamoDBSaveExpression()
-                        .withExpectedEntry("hashKey",
-                                new ExpectedAttributeValue(
-                                        new AttributeValue().withS(hashKey)
-                                )));
-        log.info("Update user by composite key hashKey={}, rangeKey={}", hashKey, user.getRangeKey());
-        return hashKey;
+    private void createChunk(List<User> chunk, Map<String, String> failures) {
+        List<User> pending = new ArrayList<>(chunk);
+        for (int attempt = 0; !pending.isEmpty(); ) {
+            // the mapper conditions a versioned put of a new user on attribute_not_exists(version), as create does
+            TransactionWriteRequest request = new TransactionWriteRequest();
+            for (User user : pending) {
+                request.addPut(user)
+                        .addPut(reservation(UserReservation.PHONE, user.getPhone(), user), condition("attribute_not_exists(uniqueKey)"))
+                        .addPut(reservation(UserReservation.EMAIL, user.getEmail(), user), condition("attribute_not_exists(uniqueKey)"));
+            }
+            try {
+                dynamoDBMapper.transactionWrite(request);
+                return;
+            } catch (TransactionCanceledException e) {
+                List<CancellationReason> reasons = e.getCancellationReasons() == null ? List.of() : e.getCancellationReasons();
+                List<User> rejected = new ArrayList<>();
+                for (int i = 0; i < reasons.size(); i++) {
+                    if ("ConditionalCheckFailed".equals(reasons.get(i).getCode())) {
+                        User user = pending.get(i / 3);
+                        failures.putIfAbsent(user.getRangeKey(), CREATE_FAILURES[i % 3]);
+                        rejected.add(user);
+                    }
+                }
+                if (!rejected.isEmpty()) {
+                    pending.removeAll(rejected);
+                } else if (!batchWriteRetryStrategy.backoff(++attempt)) {
+                    log.warn("Transaction of users is cancelled after retries, reasons={}", reasons.stream().map(CancellationReason::getCode).toList());
+                    pending.forEach(user -> failures.put(user.getRangeKey(), "Cancelled after retries"));
+                    return;
+                }
+            } catch (RuntimeException e) {
+                log.error("Failed to create users in transaction, size={}", pending.size(), e);
+                pending.forEach(user -> failures.put(user.getRangeKey(), e.getMessage()));
+                return;
+            }
+        }
     }
 
     /**
-     * Delete user from dynamodb
+     * Find which of unique keys are reserved
      *
-     * @param hashKey
+     * @param uniqueKeys kind and value, ex: phone#+84912345678
+     * @return reserved keys
+     */
+    public Set<String> findReserved(Collection<String> uniqueKeys) {
+        Set<String> result = new HashSet<>();
+        if (uniqueKeys.isEmpty()) {
+            return result;
+        }
+
+        List<Object> keys = uniqueKeys.stream()
+                .map(x -> (Object) UserReservation.builder().uniqueKey(x).build())
+                .toList();
+        dynamoDBMapper.batchLoad(keys).values().forEach(list -> list.forEach(x -> result.add(((UserReservation) x).getUniqueKey())));
+        return result;
+    }
+
+    /**
+     * Update attributes of user by one UpdateItem without reading it first, the user must exist.
+     * Attributes which are not changed keep the values of concurrent writes, so no version is needed unless the client expects one.
+     *
+     * @param hashKey         logical partition key
      * @param rangeKey
-     * @return
+     * @param changes         new value by attribute name of User
+     * @param expectedVersion version the client has read, null to update any version
+     * @return user before and after the change
+     */
+    public UserChange update(String hashKey, String rangeKey, Map<String, Object> changes, Long expectedVersion) {
+        log.info("Updating user, rangeKey={}, attributes={}", rangeKey, changes.keySet());
+
+        String shardKey = shardKeyStrategy.shardKey(hashKey, rangeKey);
+        Map<String, AttributeValue> values = convert(withStatusKey(shardKey, changes));
+        UpdateExpression set = setOf(values);
+        String condition = "attribute_exists(rangeKey)";
+        if (expectedVersion != null) {
+            condition += " AND #version = :version";
+            set.values().put(":version", new AttributeValue().withN(expectedVersion.toString()));
+        }
+        UpdateItemRequest request = new UpdateItemRequest()
+                .withTableName(tableName(User.class))
+                .withKey(keyOf(shardKey, rangeKey))
+                .withUpdateExpression(set.expression())
+                .withConditionExpression(condition)
+                .withExpressionAttributeNames(set.names())
+                .withExpressionAttributeValues(set.values())
+                .withReturnValues(ReturnValue.ALL_OLD)
+                .withReturnValuesOnConditionCheckFailure(ReturnValuesOnConditionCheckFailure.ALL_OLD);
+
+        UserChange change;
+        try {
+            change = changeOf(amazonDynamoDB.updateItem(request).getAttributes(), values);
+        } catch (ConditionalCheckFailedException e) {
+            if (e.getItem() == null) {
+                throw new ResourceNotFoundException("User not found");
+            }
+            versionConflictPolicy.reject("update");
+            throw new ConflictException("User is changed, current version=" + dynamoDBMapper.getTableModel(User.class).unconvert(e.getItem()).getVersion());
+        } finally {
+            userCache.invalidate(shardKey, rangeKey);
+        }
+        return change;
+    }
+
+    /**
+     * Update attributes of user with the searchKeys they derive, and move the reservations of its changed phone and email
+     * in one transaction, conditioned on the version of user. On a conflict the change is re-applied on the version returned
+     * by the failed condition.
+     *
+     * @param user            user as read before the change
+     * @param changes         new value by attribute name of User
+     * @param expectedVersion version the client has read, null to retry on any newer version
+     * @return user before and after the change
+     */
+    public UserChange update(User user, Map<String, Object> changes, Long expectedVersion) {
+        User current = user;
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return updateVersion(current, changes, expectedVersion != null ? expectedVersion : current.getVersion());
+            } catch (VersionConflictException e) {
+                if (expectedVersion != null) {
+                    versionConflictPolicy.reject("update-unique");
+                    throw new ConflictException("User is changed, current version=" + e.getCurrent().getVersion());
+                }
+                if (!versionConflictPolicy.retry("update-unique", attempt)) {
+                    throw new ConflictException("User is changed too often, please try again");
+                }
+                current = e.getCurrent();
+            }
+        }
+    }
+
+    /**
+     * Put users written before status-index into it, statusAt is their last update.
+     * Like searchKeys the index attributes are derived, so the version is not increased, and a user whose status is changed meanwhile is skipped.
+     *
+     * @return number of users put into status-index
+     */
+    public int backfillStatusIndex() {
+        log.info("Backfilling status-index ...");
+
+        DynamoDBMapperTableModel<User> model = dynamoDBMapper.getTableModel(User.class);
+        int count = backfill("hashKey, rangeKey, #status, updatedAt",
+                "attribute_exists(#status) AND #status <> :none AND attribute_not_exists(statusKey)",
+                Map.of(":none", new AttributeValue(UserStatus.NONE.name())),
+                item -> {
+                    User user = model.unconvert(item);
+                    return new UpdateItemRequest()
+                            .withKey(keyOf(user.getHashKey(), user.getRangeKey()))
+                            .withUpdateExpression("SET statusKey = :statusKey, statusAt = :statusAt")
+                            .withConditionExpression("#status = :status AND attribute_not_exists(statusKey)")
+                            .withExpressionAttributeNames(Map.of("#status", "status"))
+                            .withExpressionAttributeValues(Map.of(
+                                    ":statusKey", new AttributeValue(statusKeyOf(user.getHashKey(), user.getStatus())),
+                                    ":statusAt", model.field("statusAt").convert(user.getUpdatedAt() != null ? user.getUpdatedAt() : new Date()),
+                                    ":status", item.get("status")));
+                });
+
+        log.info("Status-index is backfilled, users={}", count);
+        return count;
+    }
+
+    /**
+     * Put users written before createdAt-index into it, createdAtKey is parsed from their createdAt.
+     * The version is not increased since createdAtKey is derived.
+     *
+     * @return number of users put into createdAt-index
+     */
+    public int backfillCreatedAtIndex() {
+        log.info("Backfilling createdAt-index ...");
+
+        DynamoDBMapperTableModel<User> model = dynamoDBMapper.getTableModel(User.class);
+        int count = backfill("hashKey, rangeKey, createdAt, updatedAt", "attribute_not_exists(createdAtKey)", null,
+                item -> {
+                    User user = model.unconvert(item);
+                    Date createdAt = user.getCreatedAt() != null ? user.getCreatedAt() : user.getUpdatedAt() != null ? user.getUpdatedAt() : new Date();
+                    return new UpdateItemRequest()
+                            .withKey(keyOf(user.getHashKey(), user.getRangeKey()))
+                            .withUpdateExpression("SET createdAtKey = :createdAtKey")
+                            .withConditionExpression("attribute_exists(rangeKey) AND attribute_not_exists(createdAtKey)")
+                            .withExpressionAttributeValues(Map.of(":createdAtKey", model.field("createdAtKey").convert(createdAt)));
+                });
+
+        log.info("CreatedAt-index is backfilled, users={}", count);
+        return count;
+    }
+
+    /**
+     * Rewrite the users written in another encoding: an address in the other format of amazon.dynamodb.user.address-encoding,
+     * searchKeys which are not normalized. Both are read in either format meanwhile, the tokens of searchKeys are unchanged
+     * so the search index is not touched, and the version is not increased.
+     *
+     * @return number of rewritten users
+     */
+    public int migrateEncoding() {
+        AddressConverter.Encoding encoding = addressConverter.getEncoding();
+        log.info("Migrating users to {} addresses and normalized searchKeys ...", encoding);
+
+        DynamoDBMapperTableModel<User> model = dynamoDBMapper.getTableModel(User.class);
+        // searchKeys before normalization always separate the phone and the email by a comma
+        int count = backfill("hashKey, rangeKey, #address, searchKeys",
+                "attribute_type(#address, :legacy) OR contains(searchKeys, :comma)",
+                Map.of(":legacy", new AttributeValue(encoding == AddressConverter.Encoding.MAP ? "B" : "M"), ":comma", new AttributeValue(",")),
+                item -> {
+                    List<String> sets = new ArrayList<>();
+                    List<String> conditions = new ArrayList<>(List.of("attribute_exists(rangeKey)"));
+                    Map<String, String> names = new HashMap<>();
+                    Map<String, AttributeValue> values = new HashMap<>();
+                    AttributeValue address = item.get("address");
+                    if (address != null && (encoding == AddressConverter.Encoding.MAP ? address.getB() != null : address.getM() != null)) {
+                        sets.add("#address = :address");
+                        conditions.add("#address = :oldAddress");
+                        names.put("#address", "address");
+                        values.put(":address", addressConverter.convert(addressConverter.unconvert(address)));
+                        values.put(":oldAddress", address);
+                    }
+                    if (item.containsKey("searchKeys")) {
+                        sets.add("searchKeys = :searchKeys");
+                        conditions.add("searchKeys = :oldSearchKeys");
+                        values.put(":searchKeys", new AttributeValue(SearchTokenizer.normalize(item.get("searchKeys").getS())));
+                        values.put(":oldSearchKeys", item.get("searchKeys"));
+                    }
+                    return new UpdateItemRequest()
+                            .withKey(keyOf(item.get("hashKey").getS(), item.get("rangeKey").getS()))
+                            .withUpdateExpression("SET " + String.join(", ", sets))
+                            .withConditionExpression(String.join(" AND ", conditions))
+                            .withExpressionAttributeNames(names.isEmpty() ? null : names)
+                            .withExpressionAttributeValues(values);
+                });
+
+        log.info("Users are migrated, users={}", count);
+        return count;
+    }
+
+    /**
+     * Reserve the phones and emails of users created before reservations. A reservation is written in one transaction with
+     * a check that the user still has the value, so a value changed meanwhile is not reserved. A value registered twice
+     * before reservations is left to the user which reserves it first, the other one is reported.
+     *
+     * @return number of written reservations
+     */
+    public int backfillReservations() {
+        log.info("Backfilling reservations of phones and emails ...");
+
+        ScanRequest scan = new ScanRequest()
+                .withTableName(tableName(User.class))
+                .withProjectionExpression("hashKey, rangeKey, phone, email");
+        int count = 0;
+        do {
+            ScanResult page = amazonDynamoDB.scan(scan);
+            for (Map<String, AttributeValue> item : page.getItems()) {
+                count += backfillReservation(item, UserReservation.PHONE, "phone") ? 1 : 0;
+                count += backfillReservation(item, UserReservation.EMAIL, "email") ? 1 : 0;
+            }
+            scan.setExclusiveStartKey(page.getLastEvaluatedKey());
+        } while (scan.getExclusiveStartKey() != null);
+
+        log.info("Reservations are backfilled, reservations={}", count);
+        return count;
+    }
+
+    private boolean backfillReservation(Map<String, AttributeValue> item, String kind, String attribute) {
+        AttributeValue value = item.get(attribute);
+        if (value == null || value.getS() == null) {
+            return false;
+        }
+        User user = User.builder().hashKey(item.get("hashKey").getS()).rangeKey(item.get("rangeKey").getS()).build();
+        TransactWriteItemsRequest request = new TransactWriteItemsRequest().withTransactItems(
+                new TransactWriteItem().withConditionCheck(new ConditionCheck()
+                        .withTableName(tableName(User.class))
+                        .withKey(keyOf(user.getHashKey(), user.getRangeKey()))
+                        .withConditionExpression("#value = :value")
+                        .withExpressionAttributeNames(Map.of("#value", attribute))
+                        .withExpressionAttributeValues(Map.of(":value", value))),
+                new TransactWriteItem().withPut(new Put()
+                        .withTableName(tableName(UserReservation.class))
+                        .withItem(dynamoDBMapper.getTableModel(UserReservation.class).convert(reservation(kind, value.getS(), user)))
+                        .withConditionExpression("attribute_not_exists(uniqueKey) OR userId = :userId")
+                        .withExpressionAttributeValues(Map.of(":userId", new AttributeValue(user.getRangeKey())))));
+        for (int attempt = 0; ; ) {
+            try {
+                amazonDynamoDB.transactWriteItems(request);
+                return true;
+            } catch (TransactionCanceledException e) {
+                List<CancellationReason> reasons = e.getCancellationReasons() == null ? List.of() : e.getCancellationReasons();
+                if (reasons.size() > 1 && "ConditionalCheckFailed".equals(reasons.get(1).getCode())) {
+                    log.warn("Value is registered by another user, uniqueKey={}, rangeKey={}", kind + value.getS(), user.getRangeKey());
+                    return false;
+                }
+                if (!reasons.isEmpty() && "ConditionalCheckFailed".equals(reasons.get(0).getCode())) {
+                    log.info("User is changed meanwhile, rangeKey={}", user.getRangeKey());
+                    return false;
+                }
+                if (!batchWriteRetryStrategy.backoff(++attempt)) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /**
+     * Put again the search postings of every user from its searchKeys: the postings of a failed reindex, and the postings
+     * of all users after a change of amazon.dynamodb.search.posting-shards. A posting which is left is dropped by the reader.
+     *
+     * @return number of reindexed users
+     */
+    public int reindexSearch() {
+        log.info("Reindexing search postings ...");
+
+        DynamoDBMapperTableModel<User> model = dynamoDBMapper.getTableModel(User.class);
+        ScanRequest scan = new ScanRequest()
+                .withTableName(tableName(User.class))
+                .withProjectionExpression("hashKey, rangeKey, searchKeys, #version")
+                .withExpressionAttributeNames(Map.of("#version", "version"));
+        int count = 0;
+        do {
+            ScanResult page = amazonDynamoDB.scan(scan);
+            List<User> users = page.getItems().stream().map(model::unconvert).toList();
+            userSearchRepository.indexAll(users);
+            count += users.size();
+            scan.setExclusiveStartKey(page.getLastEvaluatedKey());
+        } while (scan.getExclusiveStartKey() != null);
+
+        log.info("Search postings are reindexed, users={}", count);
+        return count;
+    }
+
+    /**
+     * Scan users matching a filter and update each of them, an update whose condition fails is skipped
+     *
+     * @param projection
+     * @param filter
+     * @param values values of filter, null for none
+     * @param updateOf   update of a scanned item, its table is set here
+     * @return number of updated users
      */
-    public String delete(String hashKey, String rangeKey) {
-        log.info("Deleting user by composite key hashKey={}, rangeKey={}", hashKey, rangeKey);
+    private int backfill(String projection, String filter, Map<String, AttributeValue> values, Function<Map<String, AttributeValue>, UpdateItemRequest> updateOf) {
+        ScanRequest scan = new ScanRequest()
+                .withTableName(tableName(User.class))
+                .withProjectionExpression(projection)
+                .withFilterExpression(filter)
+                .withExpressionAttributeValues(values);
+        Map<String, String> names = new HashMap<>();
+        for (String attribute : projection.split(",\\s*")) {
+            if (attribute.startsWith("#")) {
+                names.put(attribute, attribute.substring(1));
+            }
+        }
+        if (!names.isEmpty()) {
+            scan.withExpressionAttributeNames(names);
+        }
+        int count = 0;
+        do {
+            ScanResult page = amazonDynamoDB.scan(scan);
+            for (Map<String, AttributeValue> item : page.getItems()) {
+                UpdateItemRequest request = updateOf.apply(item).withTableName(tableName(User.class));
+                try {
+                    amazonDynamoDB.updateItem(request);
+                    count++;
+                } catch (ConditionalCheckFailedException e) {
+                    log.info("User is changed meanwhile, key={}", request.getKey());
+                } finally {
+                    userCache.invalidate(item.get("hashKey").getS(), item.get("rangeKey").getS());
+                }
+            }
+            scan.setExclusiveStartKey(page.getLastEvaluatedKey());
+        } while (scan.getExclusiveStartKey() != null);
+        return count;
+    }
+
+    private UserChange updateVersion(User user, Map<String, Object> changes, Long version) {
+        log.info("Updating user and moving reservations, rangeKey={}, version={}, attributes={}", user.getRangeKey(), version, changes.keySet());
+
+        DynamoDBMapperTableModel<User> model = dynamoDBMapper.getTableModel(User.class);
+        Map<String, AttributeValue> values = convert(withStatusKey(user.getHashKey(), changes));
+        // searchKeys derive from the user after the change, written by the same update
+        String searchKeys = SearchTokenizer.searchKeysOf(changeOf(model.convert(user), values).current());
+        if (!searchKeys.equals(user.getSearchKeys())) {
+            values.put("searchKeys", new AttributeValue(searchKeys));
+        }
+        UpdateExpression set = setOf(values);
+        String condition = "attribute_exists(rangeKey) AND attribute_not_exists(#version)";
+        if (version != null) {
+            condition = "attribute_exists(rangeKey) AND #version = :version";
+            set.values().put(":version", new AttributeValue().withN(version.toString()));
+        }
+
+        List<TransactWriteItem> items = new ArrayList<>();
+        List<Function<CancellationReason, RuntimeException>> failures = new ArrayList<>();
+        items.add(new TransactWriteItem().withUpdate(new Update()
+                .withTableName(tableName(User.class))
+                .withKey(keyOf(user.getHashKey(), user.getRangeKey()))
+                .withUpdateExpression(set.expression())
+                .withConditionExpression(condition)
+                .withExpressionAttributeNames(set.names())
+                .withExpressionAttributeValues(set.values())
+                .withReturnValuesOnConditionCheckFailure(ReturnValuesOnConditionCheckFailure.ALL_OLD)));
+        failures.add(reason -> reason.getItem() == null
+                ? new ResourceNotFoundException("User not found")
+                : new VersionConflictException(model.unconvert(reason.getItem())));
+
+        UserChange change = changeOf(model.convert(user), values);
+        if (!Objects.equals(user.getPhone(), change.current().getPhone())) {
+            items.add(deleteReservation(UserReservation.PHONE, user.getPhone(), user));
+            items.add(putReservation(UserReservation.PHONE, change.current().getPhone(), user));
+            failures.add(null);
+            failures.add(reason -> new InvalidDataException("Phone is registered"));
+        }
+        if (!Objects.equals(user.getEmail(), change.current().getEmail())) {
+            items.add(deleteReservation(UserReservation.EMAIL, user.getEmail(), user));
+            items.add(putReservation(UserReservation.EMAIL, change.current().getEmail(), user));
+            failures.add(null);
+            failures.add(reason -> new InvalidDataException("Email is registered"));
+        }
+
+        try {
+            if (items.size() == 1) {
+                // nothing to move, one UpdateItem costs half of a transaction
+                updateItem(items.get(0).getUpdate(), failures.get(0));
+            } else {
+                transactWriteItems(items, failures);
+            }
+        } finally {
+            userCache.invalidate(user.getHashKey(), user.getRangeKey());
+        }
+        return change;
+    }
+
+    /**
+     * Delete user and release its reservations in one transaction, on condition that the user is still the version read.
+     * A user changed meanwhile is deleted again in its current version, whose phone and email may have changed,
+     * with bounded retries like update.
+     *
+     * @param user user as read before the delete
+     * @return deleted version of user, null when it is deleted meanwhile
+     */
+    public User delete(User user) {
+        User current = user;
+        for (int attempt = 1; ; attempt++) {
+            try {
+                deleteVersion(current);
+                return current;
+            } catch (ResourceNotFoundException e) {
+                return null;
+            } catch (VersionConflictException e) {
+                if (!versionConflictPolicy.retry("delete", attempt)) {
+                    throw new ConflictException("User is changed too often, please try again");
+                }
+                current = e.getCurrent();
+            }
+        }
+    }
 
-        dynamoDBMapper.delete(User.builder()
-                .hashKey(hashKey)
-                .rangeKey(rangeKey).build());
-        return rangeKey;
+    private void deleteVersion(User user) {
+        log.info("Deleting user and its reservations, rangeKey={}, version={}", user.getRangeKey(), user.getVersion());
+
+        String condition = "attribute_exists(rangeKey) AND attribute_not_exists(#version)";
+        Map<String, AttributeValue> values = null;
+        if (user.getVersion() != null) {
+            condition = "#version = :version";
+            values = Map.of(":version", new AttributeValue().withN(user.getVersion().toString()));
+        }
+        DynamoDBMapperTableModel<User> model = dynamoDBMapper.getTableModel(User.class);
+        List<TransactWriteItem> items = List.of(
+                new TransactWriteItem().withDelete(new Delete()
+                        .withTableName(tableName(User.class))
+                        .withKey(keyOf(user.getHashKey(), user.getRangeKey()))
+                        .withConditionExpression(condition)
+                        .withExpressionAttributeNames(Map.of("#version", "version"))
+                        .withExpressionAttributeValues(values)
+                        .withReturnValuesOnConditionCheckFailure(ReturnValuesOnConditionCheckFailure.ALL_OLD)),
+                deleteReservation(UserReservation.PHONE, user.getPhone(), user),
+                deleteReservation(UserReservation.EMAIL, user.getEmail(), user));
+        try {
+            transactWriteItems(items, Arrays.asList(
+                    reason -> reason.getItem() == null
+                            ? new ResourceNotFoundException("User not found")
+                            : new VersionConflictException(model.unconvert(reason.getItem())),
+                    null,
+                    null));
+        } finally {
+            userCache.invalidate(user.getHashKey(), user.getRangeKey());
+        }
     }
 
     /**
-     * Find user from to dynamodb
+     * Find complete user from to dynamodb, to be written, so it is not cached
      *
      * @param hashKey
      * @param rangeKey
@@ -80,63 +600,117 @@ public class UserRepository {
     public User findByCompositeKey(String hashKey, String rangeKey) {
         log.info("Finding user by composite key hashKey={}, rangeKey={}", hashKey, rangeKey);
 
-        return dynamoDBMapper.load(User.class, hashKey, rangeKey);
+        String shardKey = shardKeyStrategy.shardKey(hashKey, rangeKey);
+        return dynamoDBMapper.load(User.class, shardKey, rangeKey);
+    }
+
+    /**
+     * Find the attributes of user which are returned by UserResponse, cached
+     *
+     * @param hashKey
+     * @param rangeKey
+     * @return User with the projected attributes
+     */
+    public User findProjectedByCompositeKey(String hashKey, String rangeKey) {
+        log.info("Finding projected user by composite key hashKey={}, rangeKey={}", hashKey, rangeKey);
+
+        String shardKey = shardKeyStrategy.shardKey(hashKey, rangeKey);
+        return userCache.get(shardKey, rangeKey, () -> {
+            Map<String, String> names = new HashMap<>();
+            GetItemRequest request = new GetItemRequest()
+                    .withTableName(tableName(User.class))
+                    .withKey(keyOf(shardKey, rangeKey))
+                    .withProjectionExpression(UserProjection.expression(UserProjection.of(List.of()), names))
+                    .withExpressionAttributeNames(names);
+            Map<String, AttributeValue> item = amazonDynamoDB.getItem(request).getItem();
+            return item == null ? null : dynamoDBMapper.getTableModel(User.class).unconvert(item);
+        });
+    }
+
+    /**
+     * Find the projected attributes of users by composite keys, cached users first, the others by BatchGetItem in chunks of 100 loaded in parallel.
+     *
+     * @param hashKey   logical partition key
+     * @param rangeKeys
+     * @return users by rangeKey, a missing user is absent
+     */
+    public Map<String, User> findAllByCompositeKeys(String hashKey, Collection<String> rangeKeys) {
+        List<UserCache.Key> keys = rangeKeys.stream()
+                .distinct()
+                .map(rangeKey -> new UserCache.Key(shardKeyStrategy.shardKey(hashKey, rangeKey), rangeKey))
+                .toList();
+        Map<UserCache.Key, Optional<User>> found = userCache.getAllPresent(keys);
+        List<UserCache.Key> misses = keys.stream().filter(key -> !found.containsKey(key)).toList();
+        log.info("Finding users by composite keys, size={}, cached={}", keys.size(), keys.size() - misses.size());
+
+        if (!misses.isEmpty()) {
+            Map<UserCache.Key, Long> generations = userCache.generationsOf(misses);
+            List<List<UserCache.Key>> chunks = Lists.partition(misses, BATCH_GET_SIZE);
+            Map<UserCache.Key, Optional<User>> loaded = new HashMap<>();
+            if (chunks.size() == 1) {
+                loaded.putAll(batchLoad(chunks.get(0)));
+            } else {
+                List<CompletableFuture<Map<UserCache.Key, Optional<User>>>> futures = chunks.stream()
+                        .map(chunk -> CompletableFuture.supplyAsync(UserRepositoryMetrics.propagate(() -> batchLoad(chunk)), dynamoDBQueryExecutor))
+                        .toList();
+                futures.forEach(future -> loaded.putAll(join(future)));
+            }
+            userCache.putAll(loaded, generations);
+            found.putAll(loaded);
+        }
+
+        Map<String, User> result = new HashMap<>();
+        found.forEach((key, user) -> user.ifPresent(x -> result.put(key.rangeKey(), x)));
+        return result;
     }
 
     /**
-     * Find user by phone
+     * Find user by phone, phone-index projects keys only
      *
      * @param phone
-     * @return User
+     * @return User with its keys and phone
      */
     public User findByPhone(String phone) {
         log.info("Finding user by phone ...");
 
-        Map<String, AttributeValue> expressionAttributeValues = new HashMap<>();
-        expressionAttributeValues.put(":phone", new AttributeValue().withS(phone));
+        User result = findFirstByIndex("phone-index", "phone", phone);
 
-        DynamoDBQueryExpression<User> queryExpression = new DynamoDBQueryExpression<User>()
-                .withIndexName("phone-index")
-                .withKeyConditionExpression("phone = :phone")
-                .withExpressionAttributeValues(expressionAttributeValues)
-                .withConsistentRead(false);
-        PaginatedQueryList<User> result = dynamoDBMapper.query(User.class, queryExpression);
-
-        if (!result.isEmpty()) {
+        if (result != null) {
             log.info("Found out user, phone={} in DynamoDB", phone);
-            return result.get(0);
         }
-        return null;
+        return result;
     }
 
     /**
-     * Find user by email
+     * Find user by email, email-index projects keys only
      *
      * @param email
-     * @return User
+     * @return User with its keys and email
      */
     public User findByEmail(String email) {
         log.info("Finding user by email={}", email);
 
-        Map<String, AttributeValue> expressionAttributeValues = new HashMap<>();
-        expressionAttributeValues.put(":email", new AttributeValue().withS(email));
+        User result = findFirstByIndex("email-index", "email", email);
 
-        DynamoDBQueryExpression<User> queryExpression = new DynamoDBQueryExpression<User>()
-                .withIndexName("email-index")
-                .withKeyConditionExpression("email = :email")
-                .withExpressionAttributeValues(expressionAttributeValues)
-                .withConsistentRead(false);
-        PaginatedQueryList<User> result = dynamoDBMapper.query(User.class, queryExpression);
-
-        if (!result.isEmpty()) {
+        if (result != null) {
             log.info("Found out user, email={} in DynamoDB", email);
-            return result.get(0);
         }
-        return null;
+        return result;
+    }
+
+    private User findFirstByIndex(String indexName, String attribute, String value) {
+        DynamoDBQueryExpression<User> queryExpression = new DynamoDBQueryExpression<User>()
+                .withIndexName(indexName)
+                .withKeyConditionExpression(attribute + " = :value")
+                .withExpressionAttributeValues(Map.of(":value", new AttributeValue().withS(value)))
+                .withLimit(1)
+                .withConsistentRead(false);
+        List<User> result = dynamoDBMapper.queryPage(User.class, queryExpression).getResults();
+        return result.isEmpty() ? null : result.get(0);
     }
 
     /**
-     * Find all user by multiple conditions
+     * Find all user by multiple conditions, on the access path chosen by the planner, fan out the query across its partitions in parallel
      *
      * @param hashKey
      * @param search
@@ -153,119 +727,509 @@ public class UserRepository {
     public LoadingPageResponse findAll(String hashKey, String search, String firstName, String lastName, String phone, String email, String address, String status, String orderBy, String nextKey, int pageSize) {
         log.info("Finding user from DynamoBD ...");
 
-        DynamoDBQueryExpression<User> queryExpression = new DynamoDBQueryExpression<User>()
-                .withHashKeyValues(User.builder().hashKey(hashKey).build())
-                .withConsistentRead(false);
+        ListingPage page = list(hashKey, search, firstName, lastName, phone, email, address, status, orderBy, nextKey, pageSize);
+        return LoadingPageResponse.builder()
+                .nextKey(page.nextKey())
+                .items(page.users().stream().map(UserProjection::toResponse).toList())
+                .build();
+    }
 
-        Map<String, String> ean = new HashMap<>();
-        Map<String, AttributeValue> eav = new HashMap<>();
-        StringBuilder filterExpression = new StringBuilder();
-
-        if (StringUtils.hasLength(search)) { // search free text
-            eav.put(":keyword", new AttributeValue().withS(search));
-            filterExpression.append("contains(searchKeys, :keyword)");
-            log.info("search free text into field searchKey");
-            log.info("Finding user with keyword={}", search);
-        } else { // search advance
-            if (StringUtils.hasLength(firstName)) {
-                eav.put(":firstName", new AttributeValue().withS(firstName));
-                filterExpression.append("firstName = :firstName ");
-            }
+    /**
+     * Stream the users of a listing to a consumer as their pages are read, one page of at most STREAM_PAGE_SIZE users is held at a time
+     *
+     * @param hashKey
+     * @param search
+     * @param firstName
+     * @param lastName
+     * @param phone
+     * @param email
+     * @param address
+     * @param status
+     * @param orderBy
+     * @param nextKey
+     * @param limit    maximum number of users
+     * @param consumer
+     * @return continuation token after the last consumed user, null when the listing is exhausted
+     */
+    public String stream(String hashKey, String search, String firstName, String lastName, String phone, String email, String address, String status, String orderBy, String nextKey, int limit, Consumer<UserResponse> consumer) {
+        log.info("Streaming user from DynamoBD ...");
 
-            if (StringUtils.hasLength(lastName)) {
-                if (StringUtils.hasLength(filterExpression)) {
-                    filterExpression.append("AND ");
-                }
-                eav.put(":lastName", new AttributeValue().withS(lastName));
-                filterExpression.append("lastName = :lastName ");
+        if (limit < 1) {
+            throw new InvalidDataException("limit must be greater than 0");
+        }
+        String next = nextKey;
+        int remaining = limit;
+        do {
+            ListingPage page = list(hashKey, search, firstName, lastName, phone, email, address, status, orderBy, next, Math.min(remaining, STREAM_PAGE_SIZE));
+            page.users().forEach(user -> consumer.accept(UserProjection.toResponse(user)));
+            remaining -= page.users().size();
+            next = page.nextKey();
+        } while (next != null && remaining > 0);
+        return next;
+    }
+
+    private ListingPage list(String hashKey, String search, String firstName, String lastName, String phone, String email, String address, String status, String orderBy, String nextKey, int pageSize) {
+        if (pageSize < 1) {
+            throw new InvalidDataException("pageSize must be greater than 0");
+        }
+
+        if (StringUtils.hasLength(search)) { // search free text by inverted index
+            return search(hashKey, search, nextKey, pageSize);
+        }
+
+        // access path and filters which are left
+        UserQueryPlanner.QueryPlan plan = userQueryPlanner.plan(hashKey, firstName, lastName, phone, email, address, status, orderBy);
+        String indexName = plan.indexName();
+        UserRepositoryMetrics.index(indexName);
+        int fingerprint = ContinuationToken.fingerprint(hashKey, search, firstName, lastName, phone, email, address, status, orderBy, indexName);
+
+        // first page starts every partition from the beginning, next pages only resume the partitions which are not exhausted
+        Map<String, Map<String, AttributeValue>> startKeys = new LinkedHashMap<>();
+        if (StringUtils.hasLength(nextKey)) {
+            ContinuationToken token = ContinuationToken.decode(nextKey);
+            // a partition outside of the plan would be queried with the key condition of another hashKey
+            if (token.getFingerprint() != fingerprint || !token.getIndexName().equals(indexName)
+                    || !plan.partitions().containsAll(token.getPositions().keySet())) {
+                throw new InvalidDataException("nextKey does not match the conditions");
             }
+            startKeys.putAll(token.getPositions());
+        } else {
+            plan.partitions().forEach(partition -> startKeys.put(partition, Map.of()));
+        }
 
-            if (StringUtils.hasLength(phone)) {
-                if (StringUtils.hasLength(filterExpression)) {
-                    filterExpression.append("AND ");
-                }
-                eav.put(":phone", new AttributeValue().withS(phone));
-                filterExpression.append("phone = :phone ");
+        List<ShardPage> pages;
+        if (startKeys.size() == 1) {
+            Map.Entry<String, Map<String, AttributeValue>> entry = startKeys.entrySet().iterator().next();
+            pages = List.of(queryShard(plan, entry.getKey(), entry.getValue(), pageSize, startKeys.size()));
+        } else {
+            List<CompletableFuture<ShardPage>> futures = startKeys.entrySet().stream()
+                    .map(entry -> CompletableFuture.supplyAsync(
+                            UserRepositoryMetrics.propagate(() -> queryShard(plan, entry.getKey(), entry.getValue(), pageSize, startKeys.size())),
+                            dynamoDBQueryExecutor))
+                    .toList();
+            pages = futures.stream().map(UserRepository::join).toList();
+        }
+        userQueryPlanner.record(plan, pages.stream().mapToLong(ShardPage::evaluated).sum(), pages.stream().mapToDouble(ShardPage::capacity).sum());
+
+        // merge the partitions by the order of the query until the page is full, each partition returns a prefix of its users
+        List<User> result = new ArrayList<>(pageSize);
+        int[] taken = new int[pages.size()];
+        PriorityQueue<Integer> heads = new PriorityQueue<>(Math.max(pages.size(), 1),
+                (a, b) -> plan.order().compare(pages.get(a).items().get(taken[a]), pages.get(b).items().get(taken[b])));
+        for (int i = 0; i < pages.size(); i++) {
+            if (!pages.get(i).items().isEmpty()) {
+                heads.add(i);
             }
+        }
+        while (result.size() < pageSize && !heads.isEmpty()) {
+            int i = heads.poll();
+            result.add(pages.get(i).items().get(taken[i]++));
+            if (taken[i] < pages.get(i).items().size()) {
+                heads.add(i);
+            }
+        }
 
-            if (StringUtils.hasLength(email)) {
-                if (StringUtils.hasLength(filterExpression)) {
-                    filterExpression.append("AND ");
-                }
-                eav.put(":email", new AttributeValue().withS(email));
-                filterExpression.append("email = :email ");
+        // a partition resumes after its last returned user, or after its last evaluated key when all of its users are returned
+        Map<String, Map<String, AttributeValue>> nextKeys = new LinkedHashMap<>();
+        for (int i = 0; i < pages.size(); i++) {
+            ShardPage page = pages.get(i);
+            if (taken[i] < page.items().size()) {
+                nextKeys.put(page.shardKey(), taken[i] == 0
+                        ? startKeys.get(page.shardKey())
+                        : userQueryPlanner.startKeyOf(plan, page.items().get(taken[i] - 1)));
+            } else if (page.lastEvaluatedKey() != null) {
+                nextKeys.put(page.shardKey(), page.lastEvaluatedKey());
             }
+        }
+
+        return new ListingPage(result, nextKeys.isEmpty() ? null : new ContinuationToken(indexName, fingerprint, nextKeys).encode());
+    }
+
+    /**
+     * Search user by free text, the users of postings are loaded in one batch
+     *
+     * @param hashKey
+     * @param search
+     * @param nextKey
+     * @param pageSize
+     * @return users ordered by id
+     */
+    private ListingPage search(String hashKey, String search, String nextKey, int pageSize) {
+        log.info("Finding user with keyword={}", search);
+        UserRepositoryMetrics.index(SEARCH_INDEX);
 
-            if (StringUtils.hasLength(address)) {
-                eav.put(":address", new AttributeValue().withS(address));
-                filterExpression.append("(address.text = :address) ");
+        int fingerprint = ContinuationToken.fingerprint(hashKey, search, SEARCH_INDEX);
+        String afterId = "";
+        if (StringUtils.hasLength(nextKey)) {
+            ContinuationToken token = ContinuationToken.decode(nextKey);
+            Map<String, AttributeValue> position = token.getPositions().get(hashKey);
+            if (token.getFingerprint() != fingerprint || !token.getIndexName().equals(SEARCH_INDEX)
+                    || position == null || position.get("rangeKey") == null || position.get("rangeKey").getS() == null) {
+                throw new InvalidDataException("nextKey does not match the conditions");
             }
+            afterId = position.get("rangeKey").getS();
+        }
 
-            if (StringUtils.hasLength(status)) {
-                if (StringUtils.hasLength(status)) {
-                    eav.put(":status", new AttributeValue().withS(status.toUpperCase()));
-                    filterExpression.append("(status = :status) ");
-                }
+        UserSearchRepository.SearchPage page = userSearchRepository.search(hashKey, search, afterId, pageSize);
+
+        List<User> result = List.of();
+        if (!page.postings().isEmpty()) {
+            List<UserCache.Key> keys = page.postings().stream()
+                    .map(x -> new UserCache.Key(x.getUserHashKey(), x.getUserId()))
+                    .toList();
+            Map<UserCache.Key, Optional<User>> users = batchLoad(keys);
+            // a posting left by a concurrent update or a failed write may name a token the user no longer has
+            Set<String> tokens = SearchTokenizer.tokenize(search);
+            result = keys.stream()
+                    .map(key -> users.get(key).orElse(null))
+                    .filter(Objects::nonNull)
+                    .filter(user -> SearchTokenizer.tokenize(SearchTokenizer.searchKeysOf(user)).containsAll(tokens))
+                    .toList();
+        }
+
+        String next = null;
+        if (page.lastId() != null) {
+            next = new ContinuationToken(SEARCH_INDEX, fingerprint,
+                    Map.of(hashKey, Map.of("rangeKey", new AttributeValue(page.lastId())))).encode();
+        }
+
+        return new ListingPage(result, next);
+    }
+
+    /**
+     * Load the projected attributes of one chunk of users by BatchGetItem, unprocessed keys are retried with jittered backoff
+     *
+     * @param keys at most 100 keys
+     * @return users by key, empty for a missing user
+     */
+    private Map<UserCache.Key, Optional<User>> batchLoad(List<UserCache.Key> keys) {
+        Map<UserCache.Key, Optional<User>> result = new HashMap<>();
+        keys.forEach(key -> result.put(key, Optional.empty()));
+
+        String tableName = tableName(User.class);
+        Map<String, String> names = new HashMap<>();
+        Map<String, KeysAndAttributes> request = Map.of(tableName, new KeysAndAttributes()
+                .withKeys(keys.stream().map(key -> keyOf(key.hashKey(), key.rangeKey())).toList())
+                .withProjectionExpression(UserProjection.expression(UserProjection.of(List.of()), names))
+                .withExpressionAttributeNames(names));
+        DynamoDBMapperTableModel<User> model = dynamoDBMapper.getTableModel(User.class);
+        for (int attempt = 0; request != null && !request.isEmpty(); attempt++) {
+            if (attempt > 0 && !batchWriteRetryStrategy.backoff(attempt)) {
+                throw new IllegalStateException("Users are unprocessed after retries, keys=" + request.get(tableName).getKeys().size());
             }
+            BatchGetItemResult page = amazonDynamoDB.batchGetItem(new BatchGetItemRequest().withRequestItems(request));
+            page.getResponses().getOrDefault(tableName, List.of()).forEach(item -> {
+                User user = model.unconvert(item);
+                result.put(new UserCache.Key(user.getHashKey(), user.getRangeKey()), Optional.of(user));
+            });
+            request = page.getUnprocessedKeys();
         }
+        return result;
+    }
 
-        if (!filterExpression.isEmpty()) {
-            queryExpression.withFilterExpression(filterExpression.toString());
-            queryExpression.withExpressionAttributeValues(eav);
+    /**
+     * Query one page of one partition of plan
+     *
+     * @param plan
+     * @param partition partition of plan, ex: shardKey
+     * @param startKey LastEvaluatedKey to resume after, empty to start from the beginning
+     * @param pageSize
+     * @param shares number of partitions queried by the request
+     * @return users of partition
+     */
+    private ShardPage queryShard(UserQueryPlanner.QueryPlan plan, String partition, Map<String, AttributeValue> startKey, int pageSize, int shares) {
+        DynamoDBQueryExpression<User> queryExpression = new DynamoDBQueryExpression<User>()
+                .withHashKeyValues(plan.hashKeyValues().apply(partition))
+                .withScanIndexForward(plan.scanIndexForward())
+                .withConsistentRead(false);
+
+        if (plan.rangeKeyConditions() != null) {
+            queryExpression.withRangeKeyConditions(plan.rangeKeyConditions());
         }
 
-        if (StringUtils.hasLength(nextKey)) {
-            Map<String, AttributeValue> keys = new LinkedHashMap<>();
-            AttributeValue hashValue = new AttributeValue(hashKey);
-            AttributeValue rangeValue = new AttributeValue(nextKey);
-            keys.put("hashKey", hashValue);
-            keys.put("rangeKey", rangeValue);
-            queryExpression.setExclusiveStartKey(keys);
+        Map<String, String> names = new HashMap<>(plan.filter().names());
+        if (!plan.filterExpression().isEmpty()) {
+            queryExpression.withFilterExpression(plan.filterExpression());
+            queryExpression.withExpressionAttributeValues(plan.filter().values());
+        }
+        if (plan.projection() != null) {
+            queryExpression.withProjectionExpression(UserProjection.expression(plan.projection(), names));
+        }
+        if (!names.isEmpty()) {
+            queryExpression.withExpressionAttributeNames(names);
         }
 
-        // sort by firstName-index desc
-        if (StringUtils.hasLength(orderBy)) {
-            queryExpression.withIndexName("firstName-index").withScanIndexForward(false);
+        if (!startKey.isEmpty()) {
+            queryExpression.setExclusiveStartKey(startKey);
         }
 
-        List<User> result = new ArrayList<>();
-        QueryResultPage<User> resultPage;
+        if (StringUtils.hasLength(plan.indexName())) {
+            queryExpression.withIndexName(plan.indexName());
+        }
 
-        // process case: result < expected result
-        int limit = 100;
-        do {
-            queryExpression.withLimit(limit);
-            resultPage = dynamoDBMapper.queryPage(User.class, queryExpression);
-            queryExpression.setExclusiveStartKey(resultPage.getLastEvaluatedKey());
-            result.addAll(resultPage.getResults());
-            limit = 300000;
+        PagedQueryEngine.QueryPage<User> page = pagedQueryEngine.query(User.class, queryExpression, pageSize, shares,
+                user -> userQueryPlanner.startKeyOf(plan, user));
 
-            log.info("queryExpression: {}", queryExpression);
-        } while (result.size() < pageSize && resultPage.getLastEvaluatedKey() != null);
+        List<User> items = plan.fetchFilter() == null ? page.items() : fetch(page.items(), plan.fetchFilter());
+        return new ShardPage(partition, items, page.lastEvaluatedKey(), page.evaluated(), page.capacity());
+    }
 
-        if (pageSize > result.size()) pageSize = result.size() - 1;
+    /**
+     * Fetch the projected attributes of users found on a keys only index, keep those matching the filter
+     *
+     * @param keys   users with their keys
+     * @param filter
+     * @return users in order of keys
+     */
+    private List<User> fetch(List<User> keys, UserQueryPlanner.Filter filter) {
+        List<User> result = new ArrayList<>(keys.size());
+        for (User key : keys) {
+            Map<String, String> names = new HashMap<>(filter.names());
+            DynamoDBQueryExpression<User> queryExpression = new DynamoDBQueryExpression<User>()
+                    .withHashKeyValues(User.builder().hashKey(key.getHashKey()).build())
+                    .withRangeKeyCondition("rangeKey", new Condition()
+                            .withComparisonOperator(ComparisonOperator.EQ)
+                            .withAttributeValueList(new AttributeValue(key.getRangeKey())))
+                    .withProjectionExpression(UserProjection.expression(UserProjection.of(List.of()), names))
+                    .withExpressionAttributeNames(names)
+                    .withConsistentRead(false);
+            if (!filter.expression().isEmpty()) {
+                queryExpression.withFilterExpression(filter.expression()).withExpressionAttributeValues(filter.values());
+            }
+            result.addAll(dynamoDBMapper.queryPage(User.class, queryExpression).getResults());
+        }
+        return result;
+    }
 
-        result = result.subList(0, pageSize);
+    /**
+     * Key of status-index, per shard of hashKey so writes of a status spread like writes of the table
+     *
+     * @param shardKey physical hashKey
+     * @param status
+     * @return statusKey, ex: uuid#3|INACTIVE
+     */
+    static String statusKeyOf(String shardKey, UserStatus status) {
+        return shardKey + "|" + status.name();
+    }
+
+    /**
+     * Put user into status-index when its status is not NONE, statusAt is kept while the status does not change
+     *
+     * @param user user with its physical hashKey
+     */
+    private static void indexStatus(User user) {
+        if (user.getStatus() == null || user.getStatus() == UserStatus.NONE) {
+            user.setStatusKey(null);
+            user.setStatusAt(null);
+            return;
+        }
+        String statusKey = statusKeyOf(user.getHashKey(), user.getStatus());
+        if (!statusKey.equals(user.getStatusKey()) || user.getStatusAt() == null) {
+            user.setStatusKey(statusKey);
+            user.setStatusAt(new Date());
+        }
+    }
 
-        String rangeKey = "";
-        if (!result.isEmpty()) {
-            rangeKey = result.get(pageSize - 1).getRangeKey();
+    /**
+     * Add the changes of status-index to a change of status, NONE removes the user from the index
+     *
+     * @param shardKey physical hashKey
+     * @param changes
+     * @return changes with statusKey and statusAt
+     */
+    private static Map<String, Object> withStatusKey(String shardKey, Map<String, Object> changes) {
+        if (!changes.containsKey("status")) {
+            return changes;
         }
+        UserStatus status = (UserStatus) changes.get("status");
+        boolean indexed = status != null && status != UserStatus.NONE;
+        Map<String, Object> result = new LinkedHashMap<>(changes);
+        result.put("statusKey", indexed ? statusKeyOf(shardKey, status) : null);
+        result.put("statusAt", indexed ? new Date() : null);
+        return result;
+    }
 
-        List<UserResponse> items = result.stream().map(
-                x -> UserResponse.builder()
-                        .id(x.getRangeKey())
-                        .firstName(x.getFirstName())
-                        .lastName(x.getLastName())
-                        .phone(x.getPhone())
-                        .email(x.getEmail())
-                        .address(x.getAddress())
-                        .build()
-        ).toList();
+    /**
+     * Write transaction, a failed condition of an operation is reported by the failure of that operation
+     *
+     * @param request
+     * @param failures failure of each operation of request, null for an unexpected failure
+     */
+    private void transactionWrite(TransactionWriteRequest request, List<Function<CancellationReason, RuntimeException>> failures) {
+        try {
+            dynamoDBMapper.transactionWrite(request);
+        } catch (TransactionCanceledException e) {
+            throw failureOf(e, failures);
+        }
+    }
 
-        return LoadingPageResponse.builder()
-                .nextKey(rangeKey)
-                .items(items)
+    /**
+     * Same as transactionWrite, for operations the mapper cannot express (ex: Update of some attributes)
+     *
+     * @param items
+     * @param failures failure of each item, null for an unexpected failure
+     */
+    private void updateItem(Update update, Function<CancellationReason, RuntimeException> failure) {
+        try {
+            amazonDynamoDB.updateItem(new UpdateItemRequest()
+                    .withTableName(update.getTableName())
+                    .withKey(update.getKey())
+                    .withUpdateExpression(update.getUpdateExpression())
+                    .withConditionExpression(update.getConditionExpression())
+                    .withExpressionAttributeNames(update.getExpressionAttributeNames())
+                    .withExpressionAttributeValues(update.getExpressionAttributeValues())
+                    .withReturnValuesOnConditionCheckFailure(ReturnValuesOnConditionCheckFailure.ALL_OLD));
+        } catch (ConditionalCheckFailedException e) {
+            throw failure.apply(new CancellationReason().withCode("ConditionalCheckFailed").withItem(e.getItem()));
+        }
+    }
+
+    private void transactWriteItems(List<TransactWriteItem> items, List<Function<CancellationReason, RuntimeException>> failures) {
+        try {
+            amazonDynamoDB.transactWriteItems(new TransactWriteItemsRequest().withTransactItems(items));
+        } catch (TransactionCanceledException e) {
+            throw failureOf(e, failures);
+        }
+    }
+
+    private static RuntimeException failureOf(TransactionCanceledException e, List<Function<CancellationReason, RuntimeException>> failures) {
+        List<CancellationReason> reasons = e.getCancellationReasons();
+        for (int i = 0; reasons != null && i < reasons.size() && i < failures.size(); i++) {
+            if ("ConditionalCheckFailed".equals(reasons.get(i).getCode()) && failures.get(i) != null) {
+                RuntimeException failure = failures.get(i).apply(reasons.get(i));
+                log.warn("Transaction is cancelled, reason={}", failure.getMessage());
+                return failure;
+            }
+        }
+        return e;
+    }
+
+    /**
+     * Convert attributes of user by the mapper annotations, updatedAt is set to now
+     *
+     * @param changes value by attribute name of User
+     * @return attribute values, null for an attribute to remove
+     */
+    private Map<String, AttributeValue> convert(Map<String, Object> changes) {
+        DynamoDBMapperTableModel<User> model = dynamoDBMapper.getTableModel(User.class);
+        Map<String, AttributeValue> values = new LinkedHashMap<>();
+        changes.forEach((name, value) -> values.put(name, value == null ? null : model.field(name).convert(value)));
+        values.put("updatedAt", model.field("updatedAt").convert(new Date()));
+        return values;
+    }
+
+    private static UpdateExpression setOf(Map<String, AttributeValue> values) {
+        StringJoiner expression = new StringJoiner(", ", "SET ", "");
+        StringJoiner remove = new StringJoiner(", ", " REMOVE ", "");
+        remove.setEmptyValue("");
+        Map<String, String> names = new HashMap<>();
+        Map<String, AttributeValue> eav = new HashMap<>();
+        names.put("#version", "version");
+        eav.put(":zero", new AttributeValue().withN("0"));
+        eav.put(":one", new AttributeValue().withN("1"));
+        expression.add("#version = if_not_exists(#version, :zero) + :one");
+        int i = 0;
+        for (Map.Entry<String, AttributeValue> entry : values.entrySet()) {
+            names.put("#a" + i, entry.getKey());
+            if (entry.getValue() == null) {
+                remove.add("#a" + i);
+            } else {
+                eav.put(":v" + i, entry.getValue());
+                expression.add("#a" + i + " = :v" + i);
+            }
+            i++;
+        }
+        return new UpdateExpression(expression + remove.toString(), names, eav);
+    }
+
+    private UserChange changeOf(Map<String, AttributeValue> previous, Map<String, AttributeValue> changes) {
+        DynamoDBMapperTableModel<User> model = dynamoDBMapper.getTableModel(User.class);
+        Map<String, AttributeValue> current = new HashMap<>(previous);
+        changes.forEach((name, value) -> {
+            if (value == null) {
+                current.remove(name);
+            } else {
+                current.put(name, value);
+            }
+        });
+        User user = model.unconvert(current);
+        user.setVersion(user.getVersion() == null ? 1 : user.getVersion() + 1);
+        return new UserChange(model.unconvert(previous), user);
+    }
+
+    private String tableName(Class<?> clazz) {
+        return DynamoDBMapperConfig.DefaultTableNameResolver.INSTANCE.getTableName(clazz, dynamoDBMapperConfig);
+    }
+
+    private static Map<String, AttributeValue> keyOf(String hashKey, String rangeKey) {
+        return Map.of("hashKey", new AttributeValue(hashKey), "rangeKey", new AttributeValue(rangeKey));
+    }
+
+    private TransactWriteItem putReservation(String kind, String value, User user) {
+        return new TransactWriteItem().withPut(new Put()
+                .withTableName(tableName(UserReservation.class))
+                .withItem(dynamoDBMapper.getTableModel(UserReservation.class).convert(reservation(kind, value, user)))
+                .withConditionExpression("attribute_not_exists(uniqueKey)"));
+    }
+
+    /**
+     * Delete reservation which belongs to user, or does not exist for a user created before reservations
+     */
+    private TransactWriteItem deleteReservation(String kind, String value, User user) {
+        return new TransactWriteItem().withDelete(new Delete()
+                .withTableName(tableName(UserReservation.class))
+                .withKey(Map.of("uniqueKey", new AttributeValue(kind + value)))
+                .withConditionExpression("attribute_not_exists(uniqueKey) OR userId = :userId")
+                .withExpressionAttributeValues(Map.of(":userId", new AttributeValue(user.getRangeKey()))));
+    }
+
+    private static UserReservation reservation(String kind, String value, User user) {
+        return UserReservation.builder()
+                .uniqueKey(kind + value)
+                .userId(user.getRangeKey())
+                .userHashKey(user.getHashKey())
                 .build();
     }
+
+    private static DynamoDBTransactionWriteExpression condition(String expression) {
+        return new DynamoDBTransactionWriteExpression().withConditionExpression(expression);
+    }
+
+    private static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * User before and after an update
+     *
+     * @param previous
+     * @param current
+     */
+    public record UserChange(User previous, User current) {
+    }
+
+    private record ListingPage(List<User> users, String nextKey) {
+    }
+
+    private record ShardPage(String shardKey, List<User> items, Map<String, AttributeValue> lastEvaluatedKey, int evaluated, double capacity) {
+    }
+
+    /**
+     * Condition on version of user failed, the current version is returned by the condition
+     */
+    @Getter
+    @RequiredArgsConstructor
+    private static class VersionConflictException extends RuntimeException {
+        private final transient User current;
+    }
+
+    private record UpdateExpression(String expression, Map<String, String> names, Map<String, AttributeValue> values) {
+    }
 }
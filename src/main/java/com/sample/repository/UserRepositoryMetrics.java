@@ -0,0 +1,162 @@
+package com.sample.repository;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.RequiredArgsConstructor;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Metrics of the operations of UserRepository, it intercepts the public methods of its proxy (see DynamoDBConfig).
+ * An operation opens a scope on its thread, the DynamoDB calls made in it (ex: by DynamoDBMapper) are tagged
+ * with its name by the client, see DynamoDBClientInstrumentation.
+ * The scope is a thread local, so it does not follow work handed to an executor: such work is wrapped with propagate,
+ * and the operation joins it before it returns, otherwise its calls are not counted nor tagged (ex: an async backfill
+ * started by the schema initializer is an operation of its own).
+ * Tags are the operation, a method name, and the table or index, so their cardinality is bounded by the code.
+ * <p>
+ * user.repository.operations{operation, index}: timer with percentiles
+ * user.repository.requests{operation, index}: DynamoDB calls of one operation, the page loop of findAll
+ */
+@Component
+@RequiredArgsConstructor
+public class UserRepositoryMetrics implements MethodInterceptor {
+
+    public static final String TABLE = "table";
+
+    private static final ThreadLocal<Scope> CURRENT = new ThreadLocal<>();
+
+    private final MeterRegistry meterRegistry;
+
+    @Override
+    public Object invoke(MethodInvocation invocation) throws Throwable {
+        if (invocation.getMethod().getDeclaringClass() == Object.class) {
+            return invocation.proceed();
+        }
+        Scope scope = start(invocation.getMethod().getName());
+        try {
+            return invocation.proceed();
+        } finally {
+            scope.close();
+        }
+    }
+
+    /**
+     * Open the scope of an operation, an operation called by another one is part of it
+     *
+     * @param operation name of method, ex: findAll
+     * @return scope to close when the operation returns
+     */
+    public Scope start(String operation) {
+        if (CURRENT.get() != null) {
+            return Scope.NESTED;
+        }
+        Scope scope = new Scope(this, operation, Timer.start(meterRegistry));
+        CURRENT.set(scope);
+        return scope;
+    }
+
+    /**
+     * Run a part of the current operation on another thread (ex: a shard of findAll) in the same scope.
+     * The operation must wait for it, its calls after the operation returned are not recorded.
+     *
+     * @param call
+     * @return call in scope
+     */
+    public static <T> Supplier<T> propagate(Supplier<T> call) {
+        Scope scope = CURRENT.get();
+        if (scope == null) {
+            return call;
+        }
+        return () -> {
+            // an executor may run the call on the calling thread, its scope is restored after
+            Scope previous = CURRENT.get();
+            CURRENT.set(scope);
+            try {
+                return call.get();
+            } finally {
+                if (previous == null) {
+                    CURRENT.remove();
+                } else {
+                    CURRENT.set(previous);
+                }
+            }
+        };
+    }
+
+    /**
+     * Scope of the calling thread
+     *
+     * @return scope, null outside of an operation
+     */
+    public static Scope current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Table or index the current operation reads, once it is chosen (ex: by the query planner)
+     *
+     * @param indexName empty for the table
+     */
+    public static void index(String indexName) {
+        Scope scope = current();
+        if (scope != null) {
+            scope.index = indexName == null || indexName.isEmpty() ? TABLE : indexName;
+        }
+    }
+
+    private void stop(Scope scope) {
+        CURRENT.remove();
+        scope.sample.stop(Timer.builder("user.repository.operations")
+                .tag("operation", scope.operation)
+                .tag("index", scope.index)
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .publishPercentileHistogram()
+                .register(meterRegistry));
+        DistributionSummary.builder("user.repository.requests")
+                .tag("operation", scope.operation)
+                .tag("index", scope.index)
+                .register(meterRegistry)
+                .record(scope.requests.get());
+    }
+
+    public static final class Scope implements AutoCloseable {
+
+        private static final Scope NESTED = new Scope(null, null, null);
+
+        private final UserRepositoryMetrics metrics;
+        private final String operation;
+        private final Timer.Sample sample;
+        private final AtomicInteger requests = new AtomicInteger();
+        private volatile String index = TABLE;
+
+        private Scope(UserRepositoryMetrics metrics, String operation, Timer.Sample sample) {
+            this.metrics = metrics;
+            this.operation = operation;
+            this.sample = sample;
+        }
+
+        public String operation() {
+            return operation;
+        }
+
+        /**
+         * Count a DynamoDB call of the operation
+         */
+        public void request() {
+            requests.incrementAndGet();
+        }
+
+        @Override
+        public void close() {
+            if (this != NESTED) {
+                metrics.stop(this);
+            }
+        }
+    }
+}
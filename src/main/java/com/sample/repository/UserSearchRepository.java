@@ -0,0 +1,290 @@
+package com.sample.repository;
+
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBQueryExpression;
+import com.amazonaws.services.dynamodbv2.datamodeling.QueryResultPage;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.ComparisonOperator;
+import com.amazonaws.services.dynamodbv2.model.Condition;
+import com.google.common.hash.Hashing;
+import com.sample.model.User;
+import com.sample.model.UserSearchPosting;
+import com.sample.util.SearchTokenizer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Repository;
+import org.springframework.util.StringUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Inverted index of searchKeys of user, every token of a user is a posting item (token, userId).
+ * The postings of a token are spread over amazon.dynamodb.search.posting-shards partitions by userId, so a frequent token
+ * (a city, a mail domain) is not one hot partition.
+ * A search queries the postings of each token of the keyword, then intersects them.
+ * Postings are written after the user, so a posting may be stale: the reader checks the matches against the user,
+ * and a user missing a posting is repaired by a reindex of its searchKeys.
+ */
+@Repository
+@Slf4j
+public class UserSearchRepository {
+
+    private static final String TOKEN_SEPARATOR = "|";
+    // a token never contains ;, the first shard keeps the key without shard of the postings written before sharding
+    private static final String SHARD_SEPARATOR = ";";
+
+    private final DynamoDBMapper dynamoDBMapper;
+    private final VersionedIndexWriter versionedIndexWriter;
+    private final ShardKeyStrategy shardKeyStrategy;
+    private final Executor dynamoDBQueryExecutor;
+    private final JitteredBatchWriteRetryStrategy batchWriteRetryStrategy;
+    private final int maxPostings;
+    private final int postingShards;
+
+    public UserSearchRepository(DynamoDBMapper dynamoDBMapper, VersionedIndexWriter versionedIndexWriter, ShardKeyStrategy shardKeyStrategy,
+                                Executor dynamoDBQueryExecutor, JitteredBatchWriteRetryStrategy batchWriteRetryStrategy,
+                                @Value("${amazon.dynamodb.search.max-postings:5000}") int maxPostings,
+                                @Value("${amazon.dynamodb.search.posting-shards:4}") int postingShards) {
+        if (postingShards < 1) {
+            throw new IllegalArgumentException("amazon.dynamodb.search.posting-shards must be greater than 0");
+        }
+        this.dynamoDBMapper = dynamoDBMapper;
+        this.versionedIndexWriter = versionedIndexWriter;
+        this.shardKeyStrategy = shardKeyStrategy;
+        this.dynamoDBQueryExecutor = dynamoDBQueryExecutor;
+        this.batchWriteRetryStrategy = batchWriteRetryStrategy;
+        this.maxPostings = maxPostings;
+        this.postingShards = postingShards;
+    }
+
+    /**
+     * Add postings of new user
+     *
+     * @param user
+     */
+    public void index(User user) {
+        reindex(null, user);
+    }
+
+    /**
+     * Add postings of new users in one batch
+     *
+     * @param users
+     */
+    public void indexAll(List<User> users) {
+        write(users.stream()
+                .flatMap(user -> SearchTokenizer.tokenize(user.getSearchKeys()).stream().map(token -> posting(user, token)))
+                .toList(), List.of());
+    }
+
+    /**
+     * Replace postings of old searchKeys by postings of current searchKeys of user,
+     * on condition that they are not written by a newer version of user, see VersionedIndexWriter
+     *
+     * @param oldSearchKeys searchKeys before the change
+     * @param user          user after the change, with its version
+     */
+    public void reindex(String oldSearchKeys, User user) {
+        Set<String> oldTokens = SearchTokenizer.tokenize(oldSearchKeys);
+        Set<String> newTokens = SearchTokenizer.tokenize(user.getSearchKeys());
+
+        List<UserSearchPosting> toSave = newTokens.stream()
+                .filter(token -> !oldTokens.contains(token))
+                .map(token -> posting(user, token))
+                .toList();
+        List<UserSearchPosting> toDelete = oldTokens.stream()
+                .filter(token -> !newTokens.contains(token))
+                .map(token -> posting(user, token))
+                .toList();
+        if (user.getVersion() == null) {
+            write(toSave, toDelete);
+            return;
+        }
+
+        versionedIndexWriter.write(UserSearchPosting.class, toSave, toDelete, user.getVersion());
+    }
+
+    /**
+     * Remove postings of deleted user
+     *
+     * @param user
+     */
+    public void remove(User user) {
+        write(List.of(), SearchTokenizer.tokenize(user.getSearchKeys()).stream()
+                .map(token -> posting(user, token))
+                .toList());
+    }
+
+    /**
+     * Find users having all of tokens of keyword, ordered by userId
+     *
+     * @param hashKey  logical partition of users
+     * @param keyword  free text
+     * @param afterId  userId to resume after, empty to start from the beginning
+     * @param pageSize
+     * @return postings of page
+     */
+    public SearchPage search(String hashKey, String keyword, String afterId, int pageSize) {
+        log.info("Searching user by inverted index, keyword={}", keyword);
+
+        Set<String> tokens = SearchTokenizer.tokenize(keyword);
+        if (tokens.isEmpty()) {
+            return new SearchPage(List.of(), null);
+        }
+
+        // one token only needs the postings of the page, several tokens need enough of each to intersect them
+        int limit = tokens.size() == 1 ? pageSize + 1 : maxPostings;
+        int shardLimit = Math.max((limit + postingShards - 1) / postingShards, 1);
+        Map<String, List<CompletableFuture<ShardPostings>>> futures = new LinkedHashMap<>();
+        for (String token : tokens) {
+            List<CompletableFuture<ShardPostings>> shards = new ArrayList<>(postingShards);
+            for (int shard = 0; shard < postingShards; shard++) {
+                String key = postingKey(hashKey, token, shard);
+                shards.add(CompletableFuture.supplyAsync(UserRepositoryMetrics.propagate(() -> postings(key, afterId, shardLimit)), dynamoDBQueryExecutor));
+            }
+            futures.put(token, shards);
+        }
+        List<TokenPostings> lists = futures.values().stream()
+                .map(shards -> merge(shards.stream().map(CompletableFuture::join).toList()))
+                .sorted(Comparator.comparingInt(x -> x.postings().size()))
+                .toList();
+
+        // postings are only complete up to the last id of a truncated list
+        String upperBound = lists.stream()
+                .filter(TokenPostings::truncated)
+                .map(x -> x.postings().get(x.postings().size() - 1).getUserId())
+                .min(Comparator.naturalOrder())
+                .orElse(null);
+
+        // intersect from the smallest list
+        List<UserSearchPosting> matches = new ArrayList<>();
+        for (UserSearchPosting posting : lists.get(0).postings()) {
+            if (upperBound != null && posting.getUserId().compareTo(upperBound) > 0) {
+                break;
+            }
+            boolean matched = true;
+            for (int i = 1; i < lists.size() && matched; i++) {
+                matched = lists.get(i).ids().contains(posting.getUserId());
+            }
+            if (matched) {
+                matches.add(posting);
+                if (matches.size() > pageSize) {
+                    break;
+                }
+            }
+        }
+
+        if (matches.size() > pageSize) {
+            List<UserSearchPosting> page = matches.subList(0, pageSize);
+            return new SearchPage(page, page.get(pageSize - 1).getUserId());
+        }
+        return new SearchPage(matches, upperBound);
+    }
+
+    private ShardPostings postings(String key, String afterId, int limit) {
+        DynamoDBQueryExpression<UserSearchPosting> queryExpression = new DynamoDBQueryExpression<UserSearchPosting>()
+                .withHashKeyValues(UserSearchPosting.builder().token(key).build())
+                .withConsistentRead(false);
+        if (StringUtils.hasLength(afterId)) {
+            queryExpression.withRangeKeyCondition("userId", new Condition()
+                    .withComparisonOperator(ComparisonOperator.GT)
+                    .withAttributeValueList(new AttributeValue(afterId)));
+        }
+
+        List<UserSearchPosting> postings = new ArrayList<>();
+        QueryResultPage<UserSearchPosting> resultPage;
+        do {
+            queryExpression.withLimit(limit - postings.size());
+            resultPage = dynamoDBMapper.queryPage(UserSearchPosting.class, queryExpression);
+            postings.addAll(resultPage.getResults());
+            queryExpression.withExclusiveStartKey(resultPage.getLastEvaluatedKey());
+        } while (resultPage.getLastEvaluatedKey() != null && postings.size() < limit);
+
+        return new ShardPostings(postings, resultPage.getLastEvaluatedKey() != null && !postings.isEmpty());
+    }
+
+    /**
+     * Merge the shards of one token by userId, up to the last id of the first truncated shard
+     * since the postings after it may be in the part of the shard which is not read
+     *
+     * @param shards postings of each shard, ordered by userId
+     * @return postings of token
+     */
+    private TokenPostings merge(List<ShardPostings> shards) {
+        String upperBound = shards.stream()
+                .filter(ShardPostings::truncated)
+                .map(x -> x.postings().get(x.postings().size() - 1).getUserId())
+                .min(Comparator.naturalOrder())
+                .orElse(null);
+
+        List<UserSearchPosting> postings = new ArrayList<>();
+        for (ShardPostings shard : shards) {
+            for (UserSearchPosting posting : shard.postings()) {
+                if (upperBound != null && posting.getUserId().compareTo(upperBound) > 0) {
+                    break;
+                }
+                postings.add(posting);
+            }
+        }
+        if (shards.size() > 1) {
+            postings.sort(Comparator.comparing(UserSearchPosting::getUserId));
+        }
+
+        Set<String> ids = new HashSet<>(postings.size() * 2);
+        postings.forEach(x -> ids.add(x.getUserId()));
+        return new TokenPostings(postings, ids, upperBound != null);
+    }
+
+    private UserSearchPosting posting(User user, String token) {
+        return UserSearchPosting.builder()
+                .token(postingKey(shardKeyStrategy.logicalKey(user.getHashKey()), token, shardOf(user.getRangeKey())))
+                .userId(user.getRangeKey())
+                .userHashKey(user.getHashKey())
+                .userVersion(user.getVersion())
+                .build();
+    }
+
+    private String postingKey(String hashKey, String token, int shard) {
+        String key = hashKey + TOKEN_SEPARATOR + token;
+        return shard == 0 ? key : key + SHARD_SEPARATOR + shard;
+    }
+
+    private int shardOf(String userId) {
+        if (postingShards == 1) {
+            return 0;
+        }
+        int hash = Hashing.murmur3_32_fixed().hashString(userId, StandardCharsets.UTF_8).asInt();
+        return Math.floorMod(hash, postingShards);
+    }
+
+    private void write(List<UserSearchPosting> toSave, List<UserSearchPosting> toDelete) {
+        if (toSave.isEmpty() && toDelete.isEmpty()) {
+            return;
+        }
+        log.debug("Updating search index, added={}, removed={}", toSave.size(), toDelete.size());
+
+        List<DynamoDBMapper.FailedBatch> failedBatches = dynamoDBMapper.batchWrite(toSave, toDelete, batchWriteRetryStrategy.config());
+        if (!failedBatches.isEmpty()) {
+            log.error("Failed to update search index, batches={}", failedBatches.size());
+            throw new IllegalStateException("Failed to update search index", failedBatches.get(0).getException());
+        }
+    }
+
+    /**
+     * Page of search
+     *
+     * @param postings postings of matched users
+     * @param lastId   userId to resume after, null when the search is exhausted
+     */
+    public record SearchPage(List<UserSearchPosting> postings, String lastId) {
+    }
+
+    private record ShardPostings(List<UserSearchPosting> postings, boolean truncated) {
+    }
+
+    private record TokenPostings(List<UserSearchPosting> postings, Set<String> ids, boolean truncated) {
+    }
+}
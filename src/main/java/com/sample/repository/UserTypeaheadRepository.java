@@ -0,0 +1,195 @@
+package com.sample.repository;
+
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBQueryExpression;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.sample.model.User;
+import com.sample.model.UserTypeahead;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Repository;
+import org.springframework.util.StringUtils;
+
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * Prefix index of user names, emails and phones.
+ * Terms are bucketed by their first characters and sorted by term, so a prefix is one begins_with query.
+ * Entries are written after the user on its version, see VersionedIndexWriter, so the reader returns them without reading the user.
+ */
+@Repository
+@Slf4j
+@RequiredArgsConstructor
+public class UserTypeaheadRepository {
+
+    private static final int BUCKET_LENGTH = 2;
+    private static final int MAX_LIMIT = 50;
+    private static final String SEPARATOR = "|";
+    private static final String ID_SEPARATOR = "#";
+    // compiled once, String.matches and replaceAll compile their regex on every call
+    private static final Pattern PHONE_LIKE = Pattern.compile("^[+\\d\\s().-]+$");
+    private static final Pattern NON_DIGIT = Pattern.compile("\\D");
+
+    private final DynamoDBMapper dynamoDBMapper;
+    private final ShardKeyStrategy shardKeyStrategy;
+    private final VersionedIndexWriter versionedIndexWriter;
+
+    /**
+     * Find top users whose name, email or phone starts with prefix
+     *
+     * @param hashKey logical partition of users
+     * @param prefix
+     * @param limit
+     * @return entries ordered by term, one per user
+     */
+    public List<UserTypeahead> findByPrefix(String hashKey, String prefix, int limit) {
+        String term = normalize(prefix);
+        if (term.length() < BUCKET_LENGTH) {
+            return List.of();
+        }
+        limit = Math.min(Math.max(limit, 1), MAX_LIMIT);
+
+        Map<String, String> ean = new HashMap<>();
+        ean.put("#bucket", "bucket");
+        ean.put("#term", "term");
+        Map<String, AttributeValue> eav = new HashMap<>();
+        eav.put(":bucket", new AttributeValue(bucketOf(hashKey, term)));
+        eav.put(":prefix", new AttributeValue(term));
+
+        // a user may match by several terms, so read more than limit then keep one entry per user
+        DynamoDBQueryExpression<UserTypeahead> queryExpression = new DynamoDBQueryExpression<UserTypeahead>()
+                .withKeyConditionExpression("#bucket = :bucket AND begins_with(#term, :prefix)")
+                .withExpressionAttributeNames(ean)
+                .withExpressionAttributeValues(eav)
+                .withLimit(limit * 3)
+                .withConsistentRead(false);
+
+        List<UserTypeahead> entries = dynamoDBMapper.queryPage(UserTypeahead.class, queryExpression).getResults();
+        if (entries.isEmpty()) {
+            return List.of();
+        }
+
+        Map<String, UserTypeahead> result = new LinkedHashMap<>();
+        for (UserTypeahead entry : entries) {
+            result.putIfAbsent(entry.getUserId(), entry);
+            if (result.size() == limit) {
+                break;
+            }
+        }
+        return new ArrayList<>(result.values());
+    }
+
+    /**
+     * Get entries of user
+     *
+     * @param user
+     * @return entries
+     */
+    public List<UserTypeahead> entriesOf(User user) {
+        String hashKey = shardKeyStrategy.logicalKey(user.getHashKey());
+        String name = (Objects.toString(user.getFirstName(), "") + " " + Objects.toString(user.getLastName(), "")).trim();
+
+        Set<String> terms = new LinkedHashSet<>();
+        terms.add(normalize(user.getFirstName()));
+        terms.add(normalize(user.getLastName()));
+        terms.add(normalize(name));
+        terms.add(normalize(user.getEmail()));
+        terms.add(normalize(user.getPhone()));
+
+        return terms.stream()
+                .filter(term -> term.length() >= BUCKET_LENGTH)
+                .map(term -> UserTypeahead.builder()
+                        .bucket(bucketOf(hashKey, term))
+                        .term(term + ID_SEPARATOR + user.getRangeKey())
+                        .userId(user.getRangeKey())
+                        .name(name)
+                        .email(user.getEmail())
+                        .userVersion(user.getVersion())
+                        .build())
+                .toList();
+    }
+
+    /**
+     * Add entries of new user
+     *
+     * @param user
+     */
+    public void index(User user) {
+        write(entriesOf(user), List.of());
+    }
+
+    /**
+     * Add entries of new users in one batch
+     *
+     * @param users
+     */
+    public void indexAll(List<User> users) {
+        write(users.stream().flatMap(user -> entriesOf(user).stream()).toList(), List.of());
+    }
+
+    /**
+     * Replace previous entries of user by its current entries,
+     * on condition that they are not written by a newer version of user, see VersionedIndexWriter
+     *
+     * @param previous entries before the change
+     * @param user     user after the change, with its version
+     */
+    public void replace(List<UserTypeahead> previous, User user) {
+        List<UserTypeahead> current = entriesOf(user);
+        Set<String> keys = new HashSet<>();
+        current.forEach(x -> keys.add(x.getBucket() + SEPARATOR + x.getTerm()));
+
+        List<UserTypeahead> toDelete = previous.stream()
+                .filter(x -> !keys.contains(x.getBucket() + SEPARATOR + x.getTerm()))
+                .toList();
+        if (user.getVersion() == null) {
+            write(current, toDelete);
+            return;
+        }
+        versionedIndexWriter.write(UserTypeahead.class, current, toDelete, user.getVersion());
+    }
+
+    /**
+     * Remove entries of deleted user
+     *
+     * @param user
+     */
+    public void remove(User user) {
+        write(List.of(), entriesOf(user));
+    }
+
+    private void write(List<UserTypeahead> toSave, List<UserTypeahead> toDelete) {
+        if (toSave.isEmpty() && toDelete.isEmpty()) {
+            return;
+        }
+        log.debug("Updating typeahead index, saved={}, removed={}", toSave.size(), toDelete.size());
+
+        List<DynamoDBMapper.FailedBatch> failedBatches = dynamoDBMapper.batchWrite(toSave, toDelete);
+        if (!failedBatches.isEmpty()) {
+            log.error("Failed to update typeahead index, batches={}", failedBatches.size());
+            throw new IllegalStateException("Failed to update typeahead index", failedBatches.get(0).getException());
+        }
+    }
+
+    private static String bucketOf(String hashKey, String term) {
+        return hashKey + SEPARATOR + term.substring(0, BUCKET_LENGTH);
+    }
+
+    /**
+     * Lower-case text, a phone number is reduced to its digits
+     *
+     * @param text
+     * @return term
+     */
+    private static String normalize(String text) {
+        if (!StringUtils.hasText(text)) {
+            return "";
+        }
+        String term = text.trim().toLowerCase(Locale.ROOT);
+        if (PHONE_LIKE.matcher(term).matches()) {
+            term = NON_DIGIT.matcher(term).replaceAll("");
+        }
+        return term;
+    }
+}
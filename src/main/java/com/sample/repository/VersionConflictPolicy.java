@@ -0,0 +1,72 @@
+package com.sample.repository;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Bounded retries of a write which lost the race against a newer version of user.
+ * The change is re-applied on the version returned by the failed condition, so a retry never reads the user again.
+ */
+@Component
+@Slf4j
+public class VersionConflictPolicy {
+
+    private final MeterRegistry meterRegistry;
+    private final int maxRetries;
+    private final long baseDelay;
+    private final long maxDelay;
+
+    public VersionConflictPolicy(MeterRegistry meterRegistry,
+                                 @Value("${amazon.dynamodb.conflict.max-retries:3}") int maxRetries,
+                                 @Value("${amazon.dynamodb.conflict.base-delay:20ms}") Duration baseDelay,
+                                 @Value("${amazon.dynamodb.conflict.max-delay:500ms}") Duration maxDelay) {
+        this.meterRegistry = meterRegistry;
+        this.maxRetries = maxRetries;
+        this.baseDelay = baseDelay.toMillis();
+        this.maxDelay = maxDelay.toMillis();
+    }
+
+    /**
+     * Record a conflict, then wait before the next attempt
+     *
+     * @param operation bounded name of write, ex: update
+     * @param attempt   attempts done, starting at 1
+     * @return false when no attempt is left
+     */
+    public boolean retry(String operation, int attempt) {
+        conflicts(operation).increment();
+        if (attempt > maxRetries) {
+            log.warn("Version conflict, no retry left, operation={}, attempts={}", operation, attempt);
+            return false;
+        }
+
+        Counter.builder("user.version.retries").tag("operation", operation).register(meterRegistry).increment();
+        long ceiling = Math.min(maxDelay, baseDelay << Math.min(attempt, 20));
+        try {
+            Thread.sleep(ThreadLocalRandom.current().nextLong(ceiling + 1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Record a conflict which is not retried, ex: the client expected another version
+     *
+     * @param operation
+     */
+    public void reject(String operation) {
+        conflicts(operation).increment();
+    }
+
+    private Counter conflicts(String operation) {
+        return Counter.builder("user.version.conflicts").tag("operation", operation).register(meterRegistry);
+    }
+}
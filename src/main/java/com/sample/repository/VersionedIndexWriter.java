@@ -0,0 +1,75 @@
+package com.sample.repository;
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapperConfig;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapperTableModel;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
+import com.amazonaws.services.dynamodbv2.model.DeleteItemRequest;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes of the items a user derives into an index (search postings, typeahead entries), each item carries the userVersion
+ * which wrote it. The items are put in batches by BatchWriteItem, which has no condition: a put only adds an item the user
+ * derives, and a put of an older version arriving after a newer one is rare and left until the next write of the user.
+ * An item is deleted on condition that a newer version of user has not written it, so concurrent updates applying
+ * their changes out of order do not remove the items of each other.
+ */
+@Component
+@Slf4j
+@RequiredArgsConstructor
+class VersionedIndexWriter {
+
+    // an item missing or without a version (written before versioning) is not newer
+    private static final String NOT_NEWER = "attribute_not_exists(userVersion) OR userVersion < :version";
+
+    private final DynamoDBMapper dynamoDBMapper;
+    private final AmazonDynamoDB amazonDynamoDB;
+    private final DynamoDBMapperConfig dynamoDBMapperConfig;
+    private final JitteredBatchWriteRetryStrategy batchWriteRetryStrategy;
+
+    /**
+     * Put items of one version of user in batches of 25, and delete the items which a newer version has not written
+     *
+     * @param clazz    item class, with a userVersion attribute
+     * @param toSave
+     * @param toDelete
+     * @param version  version of user the items derive from
+     */
+    <T> void write(Class<T> clazz, List<T> toSave, List<T> toDelete, long version) {
+        if (toSave.isEmpty() && toDelete.isEmpty()) {
+            return;
+        }
+        log.debug("Updating {} on version={}, saved={}, removed={}", clazz.getSimpleName(), version, toSave.size(), toDelete.size());
+
+        if (!toSave.isEmpty()) {
+            List<DynamoDBMapper.FailedBatch> failedBatches = dynamoDBMapper.batchWrite(toSave, List.of(), batchWriteRetryStrategy.config());
+            if (!failedBatches.isEmpty()) {
+                log.error("Failed to put {}, batches={}", clazz.getSimpleName(), failedBatches.size());
+                throw new IllegalStateException("Failed to put " + clazz.getSimpleName(), failedBatches.get(0).getException());
+            }
+        }
+
+        // an update removes a few items, one conditional delete each
+        Map<String, AttributeValue> values = Map.of(":version", new AttributeValue().withN(Long.toString(version)));
+        String tableName = DynamoDBMapperConfig.DefaultTableNameResolver.INSTANCE.getTableName(clazz, dynamoDBMapperConfig);
+        DynamoDBMapperTableModel<T> model = dynamoDBMapper.getTableModel(clazz);
+        for (T item : toDelete) {
+            try {
+                amazonDynamoDB.deleteItem(new DeleteItemRequest()
+                        .withTableName(tableName)
+                        .withKey(model.convertKey(item))
+                        .withConditionExpression(NOT_NEWER)
+                        .withExpressionAttributeValues(values));
+            } catch (ConditionalCheckFailedException e) {
+                log.debug("Item is written by a newer version of user");
+            }
+        }
+    }
+}
@@ -0,0 +1,10 @@
+package com.sample.service;
+
+import com.sample.dto.response.UserImportResponse;
+
+import java.io.InputStream;
+
+public interface UserImportService {
+
+    UserImportResponse importUsers(InputStream body, String contentType);
+}
@@ -3,7 +3,13 @@ package com.sample.service;
 import com.sample.dto.request.UserCreationRequest;
 import com.sample.dto.request.UserUpdateRequest;
 import com.sample.dto.response.LoadingPageResponse;
+import com.sample.dto.response.UserBatchItemResponse;
 import com.sample.dto.response.UserResponse;
+import com.sample.dto.response.UserSuggestionResponse;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
 
 public interface UserService {
 
@@ -16,5 +22,12 @@ public interface UserService {
     String deleteUser(String hashKey, String rangeKey);
 
     UserResponse getUser(String hashKey, String rangeKey);
+
+    List<UserBatchItemResponse> getUsers(String hashKey, List<String> rangeKeys);
+
     LoadingPageResponse getAllUsers(String hashKey, String search, String firstName, String lastName, String phone, String email, String address, String status, String orderBy, String nextKey, int pageSize);
+
+    void streamUsers(String hashKey, String search, String firstName, String lastName, String phone, String email, String address, String status, String orderBy, String nextKey, int limit, OutputStream out) throws IOException;
+
+    List<UserSuggestionResponse> suggestUsers(String hashKey, String prefix, int limit);
 }
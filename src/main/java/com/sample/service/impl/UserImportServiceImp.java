@@ -0,0 +1,350 @@
+package com.sample.service.impl;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sample.dto.request.UserCreationRequest;
+import com.sample.dto.response.UserImportResponse;
+import com.sample.exception.InvalidDataException;
+import com.sample.model.Address;
+import com.sample.model.User;
+import com.sample.model.UserReservation;
+import com.sample.repository.UserRepository;
+import com.sample.repository.UserSearchRepository;
+import com.sample.repository.UserTypeaheadRepository;
+import com.sample.service.UserImportService;
+import com.sample.util.SearchTokenizer;
+import com.sample.util.UserStatus;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import static com.sample.util.Constant.phonePattern;
+
+/**
+ * Import users from NDJSON or CSV. The body is read line by line, rows are validated and de-duplicated by phone and email
+ * on the request thread, then written in chunks by a bounded number of parallel workers.
+ */
+@Service
+@Slf4j
+public class UserImportServiceImp implements UserImportService {
+
+    public static final String NDJSON = "application/x-ndjson";
+    public static final String CSV = "text/csv";
+
+    private static final int CHUNK_SIZE = 25;
+    private static final int MAX_FAILURES = 1000;
+    private static final int PROGRESS_INTERVAL = 10000;
+
+    private final UserRepository userRepository;
+    private final UserSearchRepository userSearchRepository;
+    private final UserTypeaheadRepository userTypeaheadRepository;
+    private final ObjectMapper objectMapper;
+    private final Executor dynamoDBQueryExecutor;
+    private final int workers;
+
+    public UserImportServiceImp(UserRepository userRepository, UserSearchRepository userSearchRepository,
+                                UserTypeaheadRepository userTypeaheadRepository,
+                                ObjectMapper objectMapper, Executor dynamoDBQueryExecutor,
+                                @Value("${amazon.dynamodb.import.workers:4}") int workers) {
+        this.userRepository = userRepository;
+        this.userSearchRepository = userSearchRepository;
+        this.userTypeaheadRepository = userTypeaheadRepository;
+        this.objectMapper = objectMapper;
+        this.dynamoDBQueryExecutor = dynamoDBQueryExecutor;
+        this.workers = workers;
+    }
+
+    /**
+     * Import users
+     *
+     * @param body        NDJSON, or CSV with a header row
+     * @param contentType application/x-ndjson or text/csv
+     * @return report of import
+     */
+    @Override
+    public UserImportResponse importUsers(InputStream body, String contentType) {
+        boolean csv;
+        if (contentType != null && contentType.startsWith(CSV)) {
+            csv = true;
+        } else if (contentType != null && contentType.startsWith(NDJSON)) {
+            csv = false;
+        } else {
+            throw new InvalidDataException("Content type must be " + NDJSON + " or " + CSV);
+        }
+        log.info("Importing users, format={}", csv ? "csv" : "ndjson");
+
+        Report report = new Report();
+        Semaphore permits = new Semaphore(workers);
+        Set<String> phones = new HashSet<>();
+        Set<String> emails = new HashSet<>();
+        List<Row> chunk = new ArrayList<>(CHUNK_SIZE);
+
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8))) {
+            List<String> header = null;
+            int line = 0;
+            String text;
+            while ((text = reader.readLine()) != null) {
+                line++;
+                if (!StringUtils.hasText(text)) {
+                    continue;
+                }
+                if (csv && header == null) {
+                    header = splitCsv(text);
+                    continue;
+                }
+                report.total++;
+
+                UserCreationRequest request;
+                try {
+                    request = csv ? fromCsv(header, splitCsv(text)) : objectMapper.readValue(text, UserCreationRequest.class);
+                    validate(request);
+                } catch (JsonProcessingException e) {
+                    report.fail(line, "Row is not valid JSON");
+                    continue;
+                } catch (InvalidDataException e) {
+                    report.fail(line, e.getMessage());
+                    continue;
+                }
+
+                if (phones.contains(request.getPhone())) {
+                    report.fail(line, "Phone is duplicated in the import");
+                    continue;
+                }
+                if (emails.contains(request.getEmail())) {
+                    report.fail(line, "Email is duplicated in the import");
+                    continue;
+                }
+                phones.add(request.getPhone());
+                emails.add(request.getEmail());
+
+                chunk.add(new Row(line, request));
+                if (chunk.size() == CHUNK_SIZE) {
+                    submit(chunk, permits, report);
+                    chunk = new ArrayList<>(CHUNK_SIZE);
+                }
+            }
+            if (!chunk.isEmpty()) {
+                submit(chunk, permits, report);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read import", e);
+        } finally {
+            // wait for in-flight chunks
+            permits.acquireUninterruptibly(workers);
+        }
+
+        log.info("Users are imported, total={}, imported={}, failed={}", report.total, report.imported.get(), report.failed.get());
+        List<UserImportResponse.Failure> failures = new ArrayList<>(report.failures);
+        failures.sort(Comparator.comparingInt(UserImportResponse.Failure::getLine));
+        return UserImportResponse.builder()
+                .total(report.total)
+                .imported(report.imported.get())
+                .failed(report.failed.get())
+                .failures(failures)
+                .build();
+    }
+
+    /**
+     * Write chunk on a worker, the reader waits while all workers are busy
+     */
+    private void submit(List<Row> chunk, Semaphore permits, Report report) {
+        permits.acquireUninterruptibly();
+        try {
+            dynamoDBQueryExecutor.execute(() -> {
+                try {
+                    importChunk(chunk, report);
+                } catch (RuntimeException e) {
+                    log.error("Failed to import chunk, lines={}-{}", chunk.get(0).line(), chunk.get(chunk.size() - 1).line(), e);
+                    chunk.forEach(row -> report.fail(row.line(), e.getMessage()));
+                } finally {
+                    report.progress(chunk.size());
+                    permits.release();
+                }
+            });
+        } catch (RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    private void importChunk(List<Row> rows, Report report) {
+        List<String> keys = new ArrayList<>(rows.size() * 2);
+        rows.forEach(row -> {
+            keys.add(UserReservation.PHONE + row.request().getPhone());
+            keys.add(UserReservation.EMAIL + row.request().getEmail());
+        });
+        Set<String> reserved = userRepository.findReserved(keys);
+
+        Map<String, Row> accepted = new LinkedHashMap<>();
+        List<User> users = new ArrayList<>(rows.size());
+        for (Row row : rows) {
+            String phone = row.request().getPhone();
+            String email = row.request().getEmail();
+            if (reserved.contains(UserReservation.PHONE + phone)) {
+                report.fail(row.line(), "Phone is registered");
+            } else if (reserved.contains(UserReservation.EMAIL + email)) {
+                report.fail(row.line(), "Email is registered");
+            } else {
+                User user = toUser(row.request());
+                accepted.put(user.getRangeKey(), row);
+                users.add(user);
+            }
+        }
+        if (users.isEmpty()) {
+            return;
+        }
+
+        Map<String, String> failures = userRepository.createAll(users);
+        failures.forEach((userId, reason) -> report.fail(accepted.get(userId).line(), reason));
+
+        List<User> created = users.stream().filter(user -> !failures.containsKey(user.getRangeKey())).toList();
+        report.imported.addAndGet(created.size());
+        if (created.isEmpty()) {
+            return;
+        }
+        try {
+            userSearchRepository.indexAll(created);
+            userTypeaheadRepository.indexAll(created);
+        } catch (RuntimeException e) {
+            // users are created, only their search entries are missing
+            log.error("Failed to index imported users, size={}", created.size(), e);
+        }
+    }
+
+    private static User toUser(UserCreationRequest request) {
+        Date now = new Date();
+        User user = User.builder()
+                .hashKey("uuid")
+                .rangeKey(UUID.randomUUID().toString())
+                .firstName(request.getFirstName())
+                .lastName(request.getLastName())
+                .phone(request.getPhone())
+                .email(request.getEmail())
+                .password(request.getPassword())
+                .address(request.getAddress())
+                .status(UserStatus.NONE)
+                .isFirstLogin(false)
+                .createdAt(now)
+                .updatedAt(now)
+                .build();
+        user.setSearchKeys(SearchTokenizer.searchKeysOf(user));
+        return user;
+    }
+
+    private static void validate(UserCreationRequest request) {
+        if (!StringUtils.hasText(request.getFirstName())) throw new InvalidDataException("firstName must be not blank");
+        if (!StringUtils.hasText(request.getLastName())) throw new InvalidDataException("lastName must be not blank");
+        if (!StringUtils.hasText(request.getPhone())) throw new InvalidDataException("phone must be not blank");
+        if (!StringUtils.hasText(request.getEmail())) throw new InvalidDataException("email must be not blank");
+        if (!StringUtils.hasText(request.getPassword())) throw new InvalidDataException("password must be not blank");
+        if (!phonePattern.matcher(request.getPhone()).matches()) throw new InvalidDataException("Phone number invalid format");
+    }
+
+    /**
+     * Map CSV row by header: firstName, lastName, phone, email, password, street, district, city, country, postalCode, address
+     */
+    private static UserCreationRequest fromCsv(List<String> header, List<String> values) {
+        if (values.size() != header.size()) {
+            throw new InvalidDataException("Row has " + values.size() + " columns, header has " + header.size());
+        }
+
+        UserCreationRequest request = new UserCreationRequest();
+        Address address = new Address();
+        for (int i = 0; i < header.size(); i++) {
+            String value = values.get(i);
+            switch (header.get(i)) {
+                case "firstName" -> request.setFirstName(value);
+                case "lastName" -> request.setLastName(value);
+                case "phone" -> request.setPhone(value);
+                case "email" -> request.setEmail(value);
+                case "password" -> request.setPassword(value);
+                case "street" -> address.setStreet(value);
+                case "district" -> address.setDistrict(value);
+                case "city" -> address.setCity(value);
+                case "country" -> address.setCountry(value);
+                case "postalCode" -> address.setPostalCode(value);
+                case "address" -> address.setText(value);
+                default -> {
+                    // unknown column is ignored
+                }
+            }
+        }
+        if (Stream.of(address.getStreet(), address.getDistrict(), address.getCity(), address.getCountry(), address.getPostalCode(), address.getText())
+                .anyMatch(StringUtils::hasLength)) {
+            request.setAddress(address);
+        }
+        return request;
+    }
+
+    /**
+     * Split CSV line, a quoted value may contain commas and doubled quotes
+     */
+    private static List<String> splitCsv(String line) {
+        List<String> values = new ArrayList<>();
+        StringBuilder value = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    value.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    value.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                values.add(value.toString().trim());
+                value.setLength(0);
+            } else {
+                value.append(c);
+            }
+        }
+        values.add(value.toString().trim());
+        return values;
+    }
+
+    private record Row(int line, UserCreationRequest request) {
+    }
+
+    /**
+     * Progress of import, updated by the workers
+     */
+    private static class Report {
+        private int total;
+        private final AtomicInteger imported = new AtomicInteger();
+        private final AtomicInteger failed = new AtomicInteger();
+        private final AtomicInteger processed = new AtomicInteger();
+        private final Queue<UserImportResponse.Failure> failures = new ConcurrentLinkedQueue<>();
+
+        void fail(int line, String message) {
+            if (failed.incrementAndGet() <= MAX_FAILURES) {
+                failures.add(new UserImportResponse.Failure(line, message));
+            }
+        }
+
+        void progress(int rows) {
+            int done = processed.addAndGet(rows);
+            if (done / PROGRESS_INTERVAL != (done - rows) / PROGRESS_INTERVAL) {
+                log.info("Import in progress, processed={}, imported={}, failed={}", done, imported.get(), failed.get());
+            }
+        }
+    }
+}
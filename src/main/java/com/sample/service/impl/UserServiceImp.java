@@ -1,14 +1,24 @@
 package com.sample.service.impl;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SequenceWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
 import com.sample.dto.request.UserCreationRequest;
 import com.sample.dto.request.UserUpdateRequest;
 import com.sample.dto.response.LoadingPageResponse;
+import com.sample.dto.response.UserBatchItemResponse;
 import com.sample.dto.response.UserResponse;
+import com.sample.dto.response.UserSuggestionResponse;
 import com.sample.exception.InvalidDataException;
 import com.sample.exception.ResourceNotFoundException;
 import com.sample.model.User;
+import com.sample.repository.UserProjection;
 import com.sample.repository.UserRepository;
+import com.sample.repository.UserSearchRepository;
+import com.sample.repository.UserTypeaheadRepository;
 import com.sample.service.UserService;
+import com.sample.util.SearchTokenizer;
 import com.sample.util.UserStatus;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -16,14 +26,26 @@ import org.springframework.stereotype.Service;
 import org.springframework.util.ObjectUtils;
 import org.springframework.util.StringUtils;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
+import static com.sample.util.Constant.phonePattern;
+
 @Service
 @Slf4j
 @RequiredArgsConstructor
 public class UserServiceImp implements UserService {
 
     private final UserRepository userRepository;
+    private final UserSearchRepository userSearchRepository;
+    private final UserTypeaheadRepository userTypeaheadRepository;
+    private final ObjectMapper objectMapper;
 
     /**
      * Add new user
@@ -35,10 +57,9 @@ public class UserServiceImp implements UserService {
     public String saveUser(UserCreationRequest request) {
         log.info("Saving user ...");
 
+        // uniqueness of phone and email is enforced by the reservations written with the user
         isPhoneValid(request.getPhone());
-        isEmailValid(request.getEmail());
 
-        String searchKeys = String.format("%s %s, %s, %s, %s", request.getFirstName(), request.getLastName(), request.getPhone(), request.getEmail(), request.getAddress());
         User object = User.builder()
                 .hashKey("uuid")
                 .rangeKey(UUID.randomUUID().toString())
@@ -50,10 +71,12 @@ public class UserServiceImp implements UserService {
                 .address(request.getAddress())
                 .status(UserStatus.NONE)
                 .isFirstLogin(false)
-                .searchKeys(searchKeys)
                 .build();
+        object.setSearchKeys(SearchTokenizer.searchKeysOf(object));
 
-        User response = userRepository.save(object);
+        User response = userRepository.create(object);
+        userSearchRepository.index(response);
+        userTypeaheadRepository.index(response);
 
         return response.getRangeKey();
     }
@@ -68,43 +91,39 @@ public class UserServiceImp implements UserService {
     public String updateUser(UserUpdateRequest request) {
         log.info("Updating user ...");
 
-        User user = userRepository.findByCompositeKey(request.getHashKey(), request.getRangeKey());
-        if (user == null) {
-            throw new ResourceNotFoundException("User not found");
-        }
-
-        if (StringUtils.hasLength(request.getPhone()) && !user.getPhone().equals(request.getPhone())) {
-            isPhoneValid(request.getPhone());
-        }
-
-        if (StringUtils.hasLength(request.getEmail()) && !user.getEmail().equals(request.getEmail())) {
-            isEmailValid(request.getEmail());
-        }
-
-        String searchKeys = String.format("%s %s, %s, %s, %s", request.getFirstName(), request.getLastName(), request.getPhone(), request.getEmail(), request.getAddress());
+        Map<String, Object> changes = new LinkedHashMap<>();
         if (StringUtils.hasLength(request.getFirstName())) {
-            user.setFirstName(request.getFirstName());
+            changes.put("firstName", request.getFirstName());
         }
 
         if (StringUtils.hasLength(request.getLastName())) {
-            user.setLastName(request.getLastName());
+            changes.put("lastName", request.getLastName());
         }
 
-        if (StringUtils.hasLength(request.getPhone())) {
-            user.setPhone(request.getPhone());
+        if (!ObjectUtils.isEmpty(request.getAddress())) {
+            changes.put("address", request.getAddress());
         }
 
-        if (StringUtils.hasLength(request.getEmail())) {
-            user.setEmail(request.getEmail());
+        // every attribute of request derives searchKeys, which are written by the same update
+        User user = userRepository.findByCompositeKey(request.getHashKey(), request.getRangeKey());
+        if (user == null) {
+            throw new ResourceNotFoundException("User not found");
         }
 
-        if (!ObjectUtils.isEmpty(request.getAddress())) {
-            user.setAddress(request.getAddress());
+        // reservations of the current phone and email are released when they change
+        if (StringUtils.hasLength(request.getPhone()) && !user.getPhone().equals(request.getPhone())) {
+            isPhoneValid(request.getPhone());
+            changes.put("phone", request.getPhone());
         }
 
-        user.setSearchKeys(searchKeys);
+        if (StringUtils.hasLength(request.getEmail()) && !user.getEmail().equals(request.getEmail())) {
+            changes.put("email", request.getEmail());
+        }
 
-        userRepository.save(user);
+        UserRepository.UserChange change = userRepository.update(user, changes, request.getVersion());
+        user = change.current();
+        userSearchRepository.reindex(change.previous().getSearchKeys(), user);
+        userTypeaheadRepository.replace(userTypeaheadRepository.entriesOf(change.previous()), user);
         return "updated";
     }
 
@@ -119,10 +138,7 @@ public class UserServiceImp implements UserService {
     public String deactivateUser(String hashKey, String rangeKey) {
         log.info("Deactivating user ...");
 
-        User user = userRepository.findByCompositeKey(hashKey, rangeKey);
-        if (user == null) throw new ResourceNotFoundException("User not found");
-        user.setStatus(UserStatus.INACTIVE);
-        userRepository.save(user);
+        userRepository.update(hashKey, rangeKey, Map.of("status", UserStatus.INACTIVE), null);
         return "deactivated!";
     }
 
@@ -136,7 +152,16 @@ public class UserServiceImp implements UserService {
     @Override
     public String deleteUser(String hashKey, String rangeKey) {
         log.info("Deleting user ...");
-        userRepository.delete(hashKey, rangeKey);
+
+        User user = userRepository.findByCompositeKey(hashKey, rangeKey);
+        if (user != null) {
+            // indexes last, a failed delete leaves the user searchable and a left posting is dropped by the reader
+            User deleted = userRepository.delete(user);
+            if (deleted != null) {
+                userSearchRepository.remove(deleted);
+                userTypeaheadRepository.remove(deleted);
+            }
+        }
         return "deleted!";
     }
 
@@ -151,16 +176,33 @@ public class UserServiceImp implements UserService {
     public UserResponse getUser(String hashKey, String rangeKey) {
         log.info("Getting user ...");
 
-        User user = userRepository.findByCompositeKey(hashKey, rangeKey);
+        User user = userRepository.findProjectedByCompositeKey(hashKey, rangeKey);
         if (user == null) throw new ResourceNotFoundException("User not found");
-        return UserResponse.builder()
-                .id(user.getRangeKey())
-                .firstName(user.getFirstName())
-                .lastName(user.getLastName())
-                .phone(user.getPhone())
-                .email(user.getEmail())
-                .address(user.getAddress())
-                .build();
+        return UserProjection.toResponse(user);
+    }
+
+    /**
+     * Get users by composite keys in one batch
+     *
+     * @param hashKey
+     * @param rangeKeys
+     * @return users in order of rangeKeys, a missing user is marked as not found
+     */
+    @Override
+    public List<UserBatchItemResponse> getUsers(String hashKey, List<String> rangeKeys) {
+        log.info("Getting users in batch, size={}", rangeKeys.size());
+
+        Map<String, User> users = userRepository.findAllByCompositeKeys(hashKey, rangeKeys);
+        return rangeKeys.stream()
+                .map(rangeKey -> {
+                    User user = users.get(rangeKey);
+                    return UserBatchItemResponse.builder()
+                            .id(rangeKey)
+                            .found(user != null)
+                            .user(user == null ? null : UserProjection.toResponse(user))
+                            .build();
+                })
+                .toList();
     }
 
     /**
@@ -186,35 +228,73 @@ public class UserServiceImp implements UserService {
     }
 
     /**
-     * Check phone exists or not
+     * Write user list as NDJSON while it is read: one UserResponse per line, then a last line {"nextKey": ...}
      *
+     * @param hashKey
+     * @param search
+     * @param firstName
+     * @param lastName
      * @param phone
+     * @param email
+     * @param address
+     * @param status
+     * @param orderBy
+     * @param nextKey
+     * @param limit
+     * @param out
      */
-    private void isPhoneValid(String phone) {
-        log.info("Validating phone number={}", phone);
-
-        if (!phone.matches("^(\\+\\d{1,2}\\s?)?1?\\-?\\.?\\s?\\(?\\d{3}\\)?[\\s.-]?\\d{3}[\\s.-]?\\d{4}$"))
-            throw new InvalidDataException("Phone number invalid format");
-
-        User object = userRepository.findByPhone(phone);
-        if (object != null) {
-            log.warn("Phone number={} exists", phone);
-            throw new InvalidDataException("Phone is registered");
+    @Override
+    public void streamUsers(String hashKey, String search, String firstName, String lastName, String phone, String email, String address, String status, String orderBy, String nextKey, int limit, OutputStream out) throws IOException {
+        log.info("Streaming list of user ...");
+
+        // lines are flushed by the buffer of the response, not one by one
+        try (SequenceWriter writer = objectMapper.writer()
+                .without(JsonGenerator.Feature.AUTO_CLOSE_TARGET)
+                .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE)
+                .withRootValueSeparator("\n")
+                .writeValues(out)) {
+            String next = userRepository.stream(hashKey, search, firstName, lastName, phone, email, address, status, orderBy, nextKey, limit, user -> {
+                try {
+                    writer.write(user);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            writer.write(Collections.singletonMap("nextKey", next));
         }
+        out.write('\n');
     }
 
     /**
-     * Check phone exists or not
+     * Suggest users by prefix of name, email or phone
      *
-     * @param email
+     * @param hashKey
+     * @param prefix
+     * @param limit
+     * @return top users
      */
-    private void isEmailValid(String email) {
-        log.info("Validating email address={}", email);
+    @Override
+    public List<UserSuggestionResponse> suggestUsers(String hashKey, String prefix, int limit) {
+        log.info("Suggesting users ...");
+
+        return userTypeaheadRepository.findByPrefix(hashKey, prefix, limit).stream()
+                .map(x -> UserSuggestionResponse.builder()
+                        .id(x.getUserId())
+                        .name(x.getName())
+                        .email(x.getEmail())
+                        .build())
+                .toList();
+    }
 
-        User object = userRepository.findByEmail(email);
-        if (object != null) {
-            log.warn("Email address={} exists", email);
-            throw new InvalidDataException("Email is registered");
-        }
+    /**
+     * Check phone format, a registered phone is rejected by its reservation
+     *
+     * @param phone
+     */
+    private void isPhoneValid(String phone) {
+        log.debug("Validating phone number={}", phone);
+
+        if (!phonePattern.matcher(phone).matches())
+            throw new InvalidDataException("Phone number invalid format");
     }
 }
@@ -1,5 +1,12 @@
 package com.sample.util;
 
+import java.util.regex.Pattern;
+
 public class Constant {
     public static final String apiKey = "x-Key";
+    public static final String phoneRegex = "^(\\+\\d{1,2}\\s?)?1?\\-?\\.?\\s?\\(?\\d{3}\\)?[\\s.-]?\\d{3}[\\s.-]?\\d{4}$";
+    // compiled once, String.matches compiles phoneRegex on every call
+    public static final Pattern phonePattern = Pattern.compile(phoneRegex);
+    // # separates the shard of a stored hashKey, see ShardKeyStrategy
+    public static final String hashKeyRegex = "^[^#]*$";
 }
@@ -0,0 +1,144 @@
+package com.sample.util;
+
+import com.sample.model.User;
+import org.springframework.util.StringUtils;
+
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Split free text (ex: searchKeys of user) into normalized search tokens.
+ * Words are lower-cased, and a word with punctuation (email, phone) is indexed as a whole
+ * and by each of its alphanumeric parts.
+ */
+public final class SearchTokenizer {
+
+    private static final int MIN_LENGTH = 2;
+
+    private SearchTokenizer() {
+    }
+
+    /**
+     * Tokenize text
+     *
+     * @param text
+     * @return distinct tokens in order of appearance
+     */
+    public static Set<String> tokenize(String text) {
+        Set<String> tokens = new LinkedHashSet<>();
+        if (!StringUtils.hasText(text)) {
+            return tokens;
+        }
+
+        String lower = text.toLowerCase(Locale.ROOT);
+        for (int start = 0, end; start < lower.length(); start = end) {
+            end = endOfWord(lower, start);
+            addTokens(tokens, lower, start, end);
+            while (end < lower.length() && isSeparator(lower.charAt(end))) end++;
+        }
+        return tokens;
+    }
+
+    /**
+     * Build free text of user for searching
+     *
+     * @param user
+     * @return searchKeys
+     */
+    public static String searchKeysOf(User user) {
+        String address = user.getAddress() == null ? "" : user.getAddress().getText();
+        // same text as "%s %s, %s, %s, %s", without parsing a format on every write
+        return normalize(new StringBuilder(128)
+                .append(user.getFirstName()).append(' ')
+                .append(user.getLastName()).append(", ")
+                .append(user.getPhone()).append(", ")
+                .append(user.getEmail()).append(", ")
+                .append(address)
+                .toString());
+    }
+
+    /**
+     * Shortest text with the same tokens: lower-cased words separated by a space, a word is dropped when
+     * its tokens are already given by the words before it (ex: a name repeated by the email)
+     *
+     * @param text
+     * @return normalized text, tokenize(normalize(text)) equals tokenize(text)
+     */
+    public static String normalize(String text) {
+        if (!StringUtils.hasText(text)) {
+            return "";
+        }
+
+        Set<String> tokens = new LinkedHashSet<>();
+        StringBuilder words = new StringBuilder(text.length());
+        String lower = text.toLowerCase(Locale.ROOT);
+        for (int start = 0, end; start < lower.length(); start = end) {
+            end = endOfWord(lower, start);
+            String whole = addTokens(tokens, lower, start, end);
+            if (whole != null) {
+                if (!words.isEmpty()) {
+                    words.append(' ');
+                }
+                words.append(whole);
+            }
+            while (end < lower.length() && isSeparator(lower.charAt(end))) end++;
+        }
+        return words.toString();
+    }
+
+    /**
+     * Add the tokens of a word: the word trimmed of punctuation, and each of its runs of letters and numbers
+     *
+     * @param tokens
+     * @param text   lower-cased text
+     * @param start  first char of the word
+     * @param end    char after the word
+     * @return trimmed word when it adds a token, otherwise null
+     */
+    private static String addTokens(Set<String> tokens, String text, int start, int end) {
+        while (start < end && !Character.isLetterOrDigit(text.charAt(start))) start++;
+        while (end > start && !Character.isLetterOrDigit(text.charAt(end - 1))) end--;
+        if (start == end) {
+            return null;
+        }
+        String whole = text.substring(start, end);
+        boolean added = isToken(whole) && tokens.add(whole);
+
+        for (int from = start, to; from < end; from = to) {
+            while (from < end && !isLetterOrNumber(text.codePointAt(from))) from += Character.charCount(text.codePointAt(from));
+            to = from;
+            while (to < end && isLetterOrNumber(text.codePointAt(to))) to += Character.charCount(text.codePointAt(to));
+            if (to - from >= MIN_LENGTH) {
+                // a word of one part is its own token, which is not copied again
+                String part = from == start && to == end ? whole : text.substring(from, to);
+                added |= isToken(part) && tokens.add(part);
+            }
+        }
+        return added ? whole : null;
+    }
+
+    private static int endOfWord(String text, int start) {
+        int end = start;
+        while (end < text.length() && !isSeparator(text.charAt(end))) end++;
+        return end;
+    }
+
+    private static boolean isToken(String value) {
+        return value.length() >= MIN_LENGTH && !"null".equals(value);
+    }
+
+    // [\s,;], \s being ASCII whitespace as in a regex
+    private static boolean isSeparator(char c) {
+        return c == ' ' || c == ',' || c == ';' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
+    // [\p{L}\p{N}]
+    private static boolean isLetterOrNumber(int codePoint) {
+        if (Character.isLetter(codePoint)) {
+            return true;
+        }
+        int type = Character.getType(codePoint);
+        return type == Character.DECIMAL_DIGIT_NUMBER || type == Character.LETTER_NUMBER || type == Character.OTHER_NUMBER;
+    }
+}
@@ -0,0 +1,93 @@
+package com.sample.model;
+
+import org.joda.time.DateTimeZone;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+import org.junit.jupiter.api.Test;
+
+import java.util.Date;
+import java.util.List;
+import java.util.TimeZone;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TimestampConverterTest {
+
+	private static final List<Long> INSTANTS = List.of(
+			0L,
+			1L,
+			999L,
+			-1L,
+			-86_400_001L,
+			1_706_745_599_123L, // 2024-01-31T23:59:59.123Z
+			1_709_164_800_000L, // 2024-02-29T00:00:00Z
+			1_710_054_000_000L, // 2024-03-10T07:00:00Z, New York moves to daylight time
+			1_730_617_200_500L, // 2024-11-03T07:00:00.500Z, New York is back to standard time
+			4_102_444_799_999L);
+
+	@Test
+	void formatsLikeJoda() {
+		for (String[] format : List.of(
+				new String[]{"yyyyMMddHHmmssSSS", "UTC"},
+				new String[]{"yyyyMMddHHmmssSSS", "Asia/Ho_Chi_Minh"},
+				new String[]{"yyyyMMddHHmmssSSS", "America/New_York"},
+				new String[]{"dd-M-yyyy hh:mm:ss", "GTM"})) {
+			TimestampConverter converter = new TimestampConverter(format[0], format[1]);
+			DateTimeFormatter joda = joda(format[0], format[1]);
+			for (long millis : INSTANTS) {
+				assertEquals(joda.print(millis), converter.convert(new Date(millis)), format[0] + " " + format[1] + " " + millis);
+			}
+		}
+	}
+
+	@Test
+	void roundTripsMilliseconds() {
+		for (String timeZone : List.of("UTC", "Asia/Ho_Chi_Minh", "America/New_York")) {
+			TimestampConverter converter = new TimestampConverter("yyyyMMddHHmmssSSS", timeZone);
+			for (long millis : INSTANTS) {
+				Date date = new Date(millis);
+				assertEquals(date, converter.unconvert(converter.convert(date)), timeZone + " " + millis);
+			}
+		}
+	}
+
+	@Test
+	void parsesStoredValues() {
+		TimestampConverter updatedAt = new TimestampConverter("yyyyMMddHHmmssSSS", "UTC");
+		assertEquals(new Date(1_706_745_599_123L), updatedAt.unconvert("20240131235959123"));
+		assertEquals(new Date(0L), updatedAt.unconvert("19700101000000000"));
+
+		// createdAt: unknown zone GTM is GMT, one digit month and a 12-hour clock read as AM
+		TimestampConverter createdAt = new TimestampConverter("dd-M-yyyy hh:mm:ss", "GTM");
+		DateTimeFormatter joda = joda("dd-M-yyyy hh:mm:ss", "GTM");
+		for (String value : List.of("05-1-2024 09:07:03", "31-12-2023 12:00:00", "29-2-2024 11:59:59", "01-10-1999 01:02:03")) {
+			assertEquals(new Date(joda.parseMillis(value)), createdAt.unconvert(value), value);
+		}
+
+		TimestampConverter newYork = new TimestampConverter("yyyyMMddHHmmssSSS", "America/New_York");
+		DateTimeFormatter jodaNewYork = joda("yyyyMMddHHmmssSSS", "America/New_York");
+		for (String value : List.of("20240310010000000", "20240310030000000", "20241103013000250", "20240704120000000")) {
+			assertEquals(new Date(jodaNewYork.parseMillis(value)), newYork.unconvert(value), value);
+		}
+
+		// the last field is a fraction of second of up to three digits
+		DateTimeFormatter jodaUtc = joda("yyyyMMddHHmmssSSS", "UTC");
+		for (String value : List.of("202401312359595", "2024013123595912")) {
+			assertEquals(new Date(jodaUtc.parseMillis(value)), updatedAt.unconvert(value), value);
+		}
+	}
+
+	@Test
+	void rejectsInvalidValues() {
+		TimestampConverter converter = new TimestampConverter("yyyyMMddHHmmssSSS", "UTC");
+		assertThrows(IllegalArgumentException.class, () -> converter.unconvert("20240131235959"));
+		assertThrows(IllegalArgumentException.class, () -> converter.unconvert("20241331235959123"));
+		assertThrows(IllegalArgumentException.class, () -> converter.unconvert("2024013123595912x"));
+		assertThrows(IllegalArgumentException.class, () -> converter.unconvert("202401312359591234"));
+		assertThrows(IllegalArgumentException.class, () -> new TimestampConverter("yyyy-MM-dd'T'HH", "UTC"));
+	}
+
+	private static DateTimeFormatter joda(String pattern, String timeZone) {
+		return DateTimeFormat.forPattern(pattern).withZone(DateTimeZone.forTimeZone(TimeZone.getTimeZone(timeZone)));
+	}
+}
@@ -0,0 +1,116 @@
+package com.sample.repository;
+
+import com.amazonaws.auth.AWSStaticCredentialsProvider;
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.client.builder.AwsClientBuilder;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDBClientBuilder;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapperConfig;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapperTableModel;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.sample.config.DynamoDBConfig;
+import com.sample.model.Address;
+import com.sample.model.AddressConverter;
+import com.sample.model.User;
+import com.sample.util.SearchTokenizer;
+import com.sample.util.UserStatus;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Bytes and capacity units of a user, address as a map and legacy searchKeys against the compact encoding
+ */
+class CompactEncodingBenchmarkTest {
+
+	private static final int PAGE_SIZE = 25;
+
+	private final AmazonDynamoDB client = AmazonDynamoDBClientBuilder.standard()
+			.withEndpointConfiguration(new AwsClientBuilder.EndpointConfiguration("http://localhost:8000", "us-east-1"))
+			.withCredentials(new AWSStaticCredentialsProvider(new BasicAWSCredentials("key", "secret")))
+			.build();
+
+	@Test
+	void compactEncodingReducesItemSize() {
+		User user = user();
+		String text = String.format("%s %s, %s, %s, %s", user.getFirstName(), user.getLastName(), user.getPhone(), user.getEmail(), user.getAddress().getText());
+
+		user.setSearchKeys(text);
+		Map<String, AttributeValue> legacy = modelOf(AddressConverter.Encoding.MAP).convert(user);
+		int before = ItemSize.of(legacy);
+		for (AddressConverter.Encoding encoding : AddressConverter.Encoding.values()) {
+			user.setSearchKeys(SearchTokenizer.searchKeysOf(user));
+			int after = ItemSize.of(modelOf(encoding).convert(user));
+			assertTrue(after < before, encoding + " item is " + after + " of " + before + " bytes");
+			// a query is billed on the sum of the items it reads
+			assertTrue(ItemSize.readUnits(after * PAGE_SIZE) <= ItemSize.readUnits(before * PAGE_SIZE));
+			assertTrue(ItemSize.writeUnits(after) <= ItemSize.writeUnits(before));
+		}
+		assertEquals(SearchTokenizer.tokenize(text), SearchTokenizer.tokenize(SearchTokenizer.searchKeysOf(user)));
+	}
+
+	@Test
+	void addressIsReadInEitherEncoding() {
+		Map<String, AttributeValue> legacy = modelOf(AddressConverter.Encoding.MAP).convert(user());
+		assertNotNull(legacy.get("address").getM());
+
+		for (AddressConverter.Encoding encoding : AddressConverter.Encoding.values()) {
+			DynamoDBMapperTableModel<User> model = modelOf(encoding);
+			Map<String, AttributeValue> item = model.convert(model.unconvert(legacy));
+			assertEquals(encoding == AddressConverter.Encoding.MAP, item.get("address").getM() != null);
+
+			Address address = model.unconvert(item).getAddress();
+			assertEquals(AddressConverter.fieldsOf(user().getAddress()), AddressConverter.fieldsOf(address));
+			if (item.get("address").getB() != null) {
+				// a listing filters on the text with begins_with
+				byte[] prefix = AddressConverter.prefixOf(address.getText());
+				ByteBuffer bytes = item.get("address").getB();
+				assertArrayEquals(prefix, Arrays.copyOf(bytes.array(), prefix.length));
+			}
+		}
+	}
+
+	private DynamoDBMapperTableModel<User> modelOf(AddressConverter.Encoding encoding) {
+		return new DynamoDBMapper(client, new DynamoDBMapperConfig.Builder()
+				.withConversionSchema(DynamoDBConfig.conversionSchema(new AddressConverter(encoding)))
+				.build()).getTableModel(User.class);
+	}
+
+	private static User user() {
+		Address address = new Address();
+		address.setStreet("123 Nguyen Van Linh");
+		address.setDistrict("District 7");
+		address.setCity("Ho Chi Minh");
+		address.setCountry("Vietnam");
+		address.setPostalCode("700000");
+		address.setText("123 Nguyen Van Linh, District 7, Ho Chi Minh, Vietnam");
+
+		Date now = new Date();
+		User user = User.builder()
+				.hashKey(UUID.randomUUID().toString())
+				.rangeKey(UUID.randomUUID().toString())
+				.firstName("Tay")
+				.lastName("Luong Quoc")
+				.phone("+84912345678")
+				.email("tay.luong@example.com")
+				.password("$2a$10$7EqJtq98hPqEX7fNZaFWoOhi5BWX4Z6M6lKf2lS3e8B4y9bS9q1uK")
+				.address(address)
+				.status(UserStatus.ACTIVE)
+				.isFirstLogin(true)
+				.version(3L)
+				.createdAt(now)
+				.createdAtKey(now)
+				.updatedAt(now)
+				.statusAt(now)
+				.build();
+		user.setStatusKey(user.getHashKey() + "|" + UserStatus.ACTIVE.name());
+		return user;
+	}
+}
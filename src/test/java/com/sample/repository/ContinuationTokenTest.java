@@ -0,0 +1,61 @@
+package com.sample.repository;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.sample.exception.InvalidDataException;
+import org.junit.jupiter.api.Test;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ContinuationTokenTest {
+
+	@Test
+	void encodeAndDecode() {
+		Map<String, AttributeValue> lastEvaluatedKey = new LinkedHashMap<>();
+		lastEvaluatedKey.put("hashKey", new AttributeValue("uuid#1"));
+		lastEvaluatedKey.put("rangeKey", new AttributeValue("2f1c8a52-7d2e-4f8e-9a3c-0c6d1b1e2f3a"));
+		lastEvaluatedKey.put("firstName", new AttributeValue("Tay"));
+
+		Map<String, Map<String, AttributeValue>> positions = new LinkedHashMap<>();
+		positions.put("uuid#0", Map.of());
+		positions.put("uuid#1", lastEvaluatedKey);
+
+		int fingerprint = ContinuationToken.fingerprint("uuid", null, "Tay", "firstName-index");
+		String nextKey = new ContinuationToken("firstName-index", fingerprint, positions).encode();
+		ContinuationToken token = ContinuationToken.decode(nextKey);
+
+		assertEquals("firstName-index", token.getIndexName());
+		assertEquals(fingerprint, token.getFingerprint());
+		assertEquals(positions, token.getPositions());
+	}
+
+	@Test
+	void encodeAndDecodeManyShards() {
+		Map<String, Map<String, AttributeValue>> positions = new LinkedHashMap<>();
+		for (int i = 0; i < 300; i++) {
+			positions.put("uuid#" + i, Map.of("hashKey", new AttributeValue("uuid#" + i), "rangeKey", new AttributeValue("id-" + i)));
+		}
+
+		ContinuationToken token = ContinuationToken.decode(new ContinuationToken("", 1, positions).encode());
+
+		assertEquals(positions, token.getPositions());
+	}
+
+	@Test
+	void decodeTruncatedToken() {
+		Map<String, Map<String, AttributeValue>> positions = new LinkedHashMap<>();
+		for (int i = 0; i < 300; i++) {
+			positions.put("uuid#" + i, Map.of());
+		}
+		String nextKey = new ContinuationToken("", 1, positions).encode();
+
+		assertThrows(InvalidDataException.class, () -> ContinuationToken.decode(nextKey.substring(0, 16)));
+	}
+
+	@Test
+	void decodeInvalidToken() {
+		assertThrows(InvalidDataException.class, () -> ContinuationToken.decode("2f1c8a52"));
+	}
+}
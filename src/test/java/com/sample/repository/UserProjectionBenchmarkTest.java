@@ -0,0 +1,87 @@
+package com.sample.repository;
+
+import com.amazonaws.auth.AWSStaticCredentialsProvider;
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.client.builder.AwsClientBuilder;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDBClientBuilder;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapperTableModel;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.sample.model.Address;
+import com.sample.model.User;
+import com.sample.util.SearchTokenizer;
+import com.sample.util.UserStatus;
+import org.junit.jupiter.api.Test;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Bytes and read capacity of a page of users, complete items against the projection of UserResponse
+ */
+class UserProjectionBenchmarkTest {
+
+	private static final int PAGE_SIZE = 25;
+
+	@Test
+	void projectionReducesReadSize() {
+		DynamoDBMapper mapper = new DynamoDBMapper(AmazonDynamoDBClientBuilder.standard()
+				.withEndpointConfiguration(new AwsClientBuilder.EndpointConfiguration("http://localhost:8000", "us-east-1"))
+				.withCredentials(new AWSStaticCredentialsProvider(new BasicAWSCredentials("key", "secret")))
+				.build());
+		DynamoDBMapperTableModel<User> model = mapper.getTableModel(User.class);
+
+		Map<String, AttributeValue> item = model.convert(user());
+		Map<String, AttributeValue> projected = new HashMap<>(item);
+		Set<String> attributes = UserProjection.of(Set.of());
+		projected.keySet().retainAll(attributes);
+
+		int full = ItemSize.of(item);
+		int view = ItemSize.of(projected);
+		// a query is billed on the sum of the items it reads, eventually consistent reads cost half
+		double fullUnits = ItemSize.readUnits(full * PAGE_SIZE) / 2.0;
+		double viewUnits = ItemSize.readUnits(view * PAGE_SIZE) / 2.0;
+
+		assertFalse(projected.containsKey("password"));
+		assertFalse(projected.containsKey("searchKeys"));
+		assertTrue(view < full * 0.6, "projected item is " + view + " of " + full + " bytes");
+		assertTrue(viewUnits < fullUnits);
+	}
+
+	private static User user() {
+		Address address = new Address();
+		address.setStreet("123 Nguyen Van Linh");
+		address.setDistrict("District 7");
+		address.setCity("Ho Chi Minh");
+		address.setCountry("Vietnam");
+		address.setPostalCode("700000");
+		address.setText("123 Nguyen Van Linh, District 7, Ho Chi Minh, Vietnam");
+
+		Date now = new Date();
+		User user = User.builder()
+				.hashKey(UUID.randomUUID().toString())
+				.rangeKey(UUID.randomUUID().toString())
+				.firstName("Tay")
+				.lastName("Luong Quoc")
+				.phone("+84912345678")
+				.email("tay.luong@example.com")
+				.password("$2a$10$7EqJtq98hPqEX7fNZaFWoOhi5BWX4Z6M6lKf2lS3e8B4y9bS9q1uK")
+				.address(address)
+				.status(UserStatus.ACTIVE)
+				.isFirstLogin(true)
+				.version(3L)
+				.createdAt(now)
+				.createdAtKey(now)
+				.updatedAt(now)
+				.statusAt(now)
+				.build();
+		user.setStatusKey(user.getHashKey() + "|" + UserStatus.ACTIVE.name());
+		user.setSearchKeys(SearchTokenizer.searchKeysOf(user));
+		return user;
+	}
+}